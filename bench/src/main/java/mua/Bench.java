@@ -0,0 +1,55 @@
+package mua;
+
+import java.io.OutputStream;
+import java.io.StringReader;
+
+/**
+ * Helpers shared by the benchmarks.
+ * The benchmarks are in package mua, so they reach the same methods the interpreter calls.
+ */
+final class Bench {
+    private Bench() {
+    }
+
+    /**
+     * @param engine "tree" to walk the parsed tree, "vm" to run with the bytecode VM.
+     * @return an interpreter with its tables ready, which reads nothing.
+     */
+    static Interpreter interpreter(String engine) {
+        Interpreter in = create(engine);
+        in.init(new StringReader(""), OutputStream.nullOutputStream());
+        return in;
+    }
+
+    /**
+     * The results of pure functions are not kept, otherwise a benchmark which calls
+     * the same function again only measures the lookup of its result, see {@link MemoBenchmark}.
+     * @param engine "tree" to walk the parsed tree, "vm" to run with the bytecode VM.
+     * @return a new interpreter, which is not initialized.
+     */
+    static Interpreter create(String engine) {
+        Interpreter in = new Interpreter();
+        if(engine.equals("vm"))
+            in.useVM();
+        in.setMemoCapacity(0);
+        return in;
+    }
+
+    /**
+     * Run every statement of the source.
+     * @param in the interpreter.
+     * @param source the code.
+     * @return the value of the last statement.
+     */
+    static Value exec(Interpreter in, String source) {
+        TokenStream ts = tokens(source);
+        Value res = null;
+        while (ts.hasNext())
+            res = in.execute(in.getParser().parseStatement(ts));
+        return res;
+    }
+
+    static TokenStream tokens(String source) {
+        return new TokenStream(new Lexer(new StringReader(source)));
+    }
+}
@@ -0,0 +1,40 @@
+package mua;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * - add, sub, mul, div, mod on two numbers, by muaCalculate.
+ * The size is the magnitude of operands, small numbers are read from code, large ones are computed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CalculateBenchmark {
+    /** 1 -> add  2 -> sub  3 -> mul  4 -> div  5 -> mod */
+    @Param({"1", "2", "3", "4", "5"})
+    int state;
+
+    @Param({"10", "1000000", "1000000000000"})
+    long size;
+
+    private Interpreter in;
+    private Value a;
+    private Value b;
+
+    @Setup
+    public void setup() {
+        in = Bench.interpreter("tree");
+        a = new NumberValue(size + 458, String.valueOf(size + 458));
+        b = new NumberValue(size / 3 + 7);
+    }
+
+    @Benchmark
+    public Value calculate() {
+        return in.muaCalculate(state, a, b);
+    }
+}
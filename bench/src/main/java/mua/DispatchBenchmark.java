@@ -0,0 +1,49 @@
+package mua;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatch of builtin operations: an expression of size nested [add] calls on a variable,
+ * read from text and run, and run again from the cached parsed code.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+    @Param({"1", "16", "256"})
+    int size;
+
+    @Param({"tree", "vm"})
+    String engine;
+
+    private Interpreter in;
+    private String source;
+    private Node parsed;
+
+    @Setup
+    public void setup() {
+        in = Bench.interpreter(engine);
+        /* An operand read from a variable, so the calls are not folded into a literal when parsed */
+        Bench.exec(in, "make \"x 1");
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<size; i++)
+            sb.append("add :x ");
+        source = sb.append("0").toString();
+        parsed = in.getParser().parseStatement(Bench.tokens(source));
+    }
+
+    @Benchmark
+    public Value parseAndRun() {
+        return Bench.exec(in, source);
+    }
+
+    @Benchmark
+    public Value run() {
+        return in.execute(parsed);
+    }
+}
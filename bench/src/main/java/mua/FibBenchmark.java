@@ -0,0 +1,42 @@
+package mua;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recursion of user functions: fib n, with and without compiling hot functions to JVM bytecode.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FibBenchmark {
+    @Param({"10", "15", "20"})
+    int n;
+
+    @Param({"tree", "vm"})
+    String engine;
+
+    /** The number of calls before a function is compiled, 0 to never compile. */
+    @Param({"0", "1000"})
+    int hot;
+
+    private Interpreter in;
+    private Value[] args;
+
+    @Setup
+    public void setup() {
+        in = Bench.interpreter(engine);
+        in.setHotThreshold(hot);
+        Bench.exec(in, "make \"fib [[n] [if lt :n 2 [return :n] [return add fib sub :n 1 fib sub :n 2]]]");
+        args = new Value[]{new NumberValue(n)};
+    }
+
+    @Benchmark
+    public Value fib() {
+        return in.runFunc("fib", args.clone());
+    }
+}
@@ -0,0 +1,40 @@
+package mua;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * - first, last, butfirst, butlast on lists of growing size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GetElementBenchmark {
+    /** 1 -> first  2 -> last  3 -> butfirst  4 -> butlast */
+    @Param({"1", "2", "3", "4"})
+    int type;
+
+    @Param({"10", "1000", "100000"})
+    int size;
+
+    private Interpreter in;
+    private Value list;
+
+    @Setup
+    public void setup() {
+        in = Bench.interpreter("tree");
+        Value[] elements = new Value[size];
+        for(int i=0; i<size; i++)
+            elements[i] = new NumberValue(i);
+        list = new ListValue(elements);
+    }
+
+    @Benchmark
+    public Value getElement() {
+        return in.getElement(type, list);
+    }
+}
@@ -0,0 +1,40 @@
+package mua;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recursion of user functions over a list: the length of a list of size elements, one call per element.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss16m")
+@State(Scope.Thread)
+public class ListLengthBenchmark {
+    @Param({"10", "100", "1000"})
+    int size;
+
+    @Param({"tree", "vm"})
+    String engine;
+
+    private Interpreter in;
+    private Value[] args;
+
+    @Setup
+    public void setup() {
+        in = Bench.interpreter(engine);
+        Bench.exec(in, "make \"len [[l] [if isempty :l [return 0] [return add 1 len butfirst :l]]]");
+        Value[] elements = new Value[size];
+        for(int i=0; i<size; i++)
+            elements[i] = new WordValue("e" + i);
+        args = new Value[]{new ListValue(elements)};
+    }
+
+    @Benchmark
+    public Value length() {
+        return in.runFunc("len", args.clone());
+    }
+}
@@ -0,0 +1,46 @@
+package mua;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * fib n with the results of pure functions kept, as the interpreter runs by default.
+ * cold starts each call with an empty cache, so it measures the calls inside one fib n,
+ * warm calls fib n again and again, so it measures the lookup of a kept result.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MemoBenchmark {
+    @Param({"20", "25"})
+    int n;
+
+    @Param({"tree", "vm"})
+    String engine;
+
+    private Interpreter in;
+    private Value[] args;
+
+    @Setup
+    public void setup() {
+        in = Bench.interpreter(engine);
+        in.setMemoCapacity(Memo.DEFAULT_CAPACITY);
+        Bench.exec(in, "make \"fib [[n] [if lt :n 2 [return :n] [return add fib sub :n 1 fib sub :n 2]]]");
+        args = new Value[]{new NumberValue(n)};
+    }
+
+    @Benchmark
+    public Value cold() {
+        in.setMemoCapacity(Memo.DEFAULT_CAPACITY);
+        return in.runFunc("fib", args.clone());
+    }
+
+    @Benchmark
+    public Value warm() {
+        return in.runFunc("fib", args.clone());
+    }
+}
@@ -0,0 +1,42 @@
+package mua;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end run of the test programs in src/test-data, with the output thrown away.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss16m")
+@State(Scope.Thread)
+public class ProgramBenchmark {
+    @Param({"p1", "p2"})
+    String program;
+
+    @Param({"tree", "vm"})
+    String engine;
+
+    private String source;
+
+    @Setup
+    public void setup() throws IOException {
+        try (InputStream res = ProgramBenchmark.class.getResourceAsStream("/test-data/" + program + "/in.txt")) {
+            source = new String(res.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public int run() {
+        Interpreter in = Bench.create(engine);
+        return in.run(new StringReader(source), OutputStream.nullOutputStream());
+    }
+}
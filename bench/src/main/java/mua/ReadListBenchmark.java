@@ -0,0 +1,42 @@
+package mua;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a list literal of size elements, every tenth of them a nested list.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReadListBenchmark {
+    @Param({"10", "1000", "100000"})
+    int size;
+
+    private Interpreter in;
+    private String source;
+
+    @Setup
+    public void setup() {
+        in = Bench.interpreter("tree");
+        StringBuilder sb = new StringBuilder("[");
+        for(int i=0; i<size; i++) {
+            if(i % 10 == 9)
+                sb.append(" [a ").append(i).append(']');
+            else
+                sb.append(' ').append(i);
+        }
+        source = sb.append(" ]").toString();
+    }
+
+    @Benchmark
+    public Value readList() {
+        TokenStream ts = Bench.tokens(source);
+        ts.next();
+        return in.getParser().readList(ts);
+    }
+}
@@ -0,0 +1,90 @@
+package mua;
+
+import java.util.Arrays;
+
+/**
+ * A growable array with O(1) access by index, made by [array] and changed by [setitem].
+ * Unlike lists, an array is changed in place, so every name bound to it sees the change.
+ * While every element is a number which prints as computed, the elements are kept unboxed in a double[].
+ */
+public final class ArrayValue extends Value {
+    /** The greatest number of elements, so a large size is an error of the program instead of the JVM. */
+    static final int MAX_SIZE = 1 << 24;
+    /** The elements while all are numbers, null after another value is put. */
+    private double[] nums;
+    /** The elements after a value which is not such a number is put, null before. */
+    private Value[] vals;
+    private int size;
+
+    /**
+     * @param size the number of elements, which are 0 at first.
+     */
+    ArrayValue(int size) {
+        nums = new double[Math.max(size, 4)];
+        this.size = size;
+    }
+
+    public int getType() {
+        return Interpreter.ARRAY_;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param i the index, in [0, size).
+     * @return the element.
+     */
+    Value get(int i) {
+        return vals != null ? vals[i] : NumberValue.of(nums[i]);
+    }
+
+    /**
+     * @param i the index, in [0, size]. The element at size is put at the end.
+     * @param v the element.
+     */
+    void set(int i, Value v) {
+        if(vals == null && v instanceof NumberValue && ((NumberValue) v).printsAsComputed()) {
+            if(i == size) {
+                if(size == nums.length)
+                    nums = Arrays.copyOf(nums, size * 2);
+                size++;
+            }
+            nums[i] = v.getNumber();
+            return;
+        }
+        if(vals == null) {
+            /* From now on the elements are kept as they are */
+            vals = new Value[nums.length];
+            for(int j=0; j<size; j++)
+                vals[j] = NumberValue.of(nums[j]);
+            nums = null;
+        }
+        if(i == size) {
+            if(size == vals.length)
+                vals = Arrays.copyOf(vals, size * 2);
+            size++;
+        }
+        vals[i] = v;
+    }
+
+    public String getVal() {
+        StringBuilder res = new StringBuilder();
+        appendTo(res);
+        return res.toString();
+    }
+
+    /**
+     * The elements in braces, like {1.0 2.0 3.0}.
+     */
+    void appendTo(StringBuilder sb) {
+        sb.append('{');
+        for(int i=0; i<size; i++) {
+            if(i > 0)
+                sb.append(' ');
+            get(i).appendTo(sb);
+        }
+        sb.append('}');
+    }
+}
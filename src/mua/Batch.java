@@ -0,0 +1,59 @@
+package mua;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Run many programs in one JVM, each on an interpreter of its own.
+ * The program in file X is read from X as if it were stdin, its output is written to X.out.
+ */
+final class Batch {
+    private Batch() {
+    }
+
+    /**
+     * @param files the files of programs.
+     * @param jobs the number of programs run at the same time.
+     * @param make makes an interpreter for each program.
+     * @return the number of programs which failed.
+     */
+    static int run(List<String> files, int jobs, Supplier<Interpreter> make) {
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        ArrayList<Future<Integer>> results = new ArrayList<>();
+        for (String file : files)
+            results.add(pool.submit(() -> runFile(file, make.get())));
+        pool.shutdown();
+
+        int failed = 0;
+        for(int i=0; i<files.size(); i++) {
+            int status;
+            try {
+                status = results.get(i).get();
+            } catch (Exception e) {
+                System.err.println(files.get(i) + ": " + e.getCause());
+                status = 1;
+            }
+            if(status != 0) {
+                System.err.println(files.get(i) + ": failed");
+                failed++;
+            }
+        }
+        System.err.println("batch: " + files.size() + " programs, " + failed + " failed");
+        return failed;
+    }
+
+    /**
+     * @return 0 if the program ends well, 1 after an error.
+     */
+    private static int runFile(String file, Interpreter in) throws IOException {
+        try (Reader source = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+             OutputStream output = new FileOutputStream(file + ".out")) {
+            return in.run(source, output);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package mua;
+
+import java.util.Arrays;
+
+/**
+ * The parsed code of a list body, cached on the list value.
+ * A statement is parsed the first time execution reaches it and kept,
+ * so a function defined earlier in the same body can be called later in it.
+ */
+public class Block {
+    private final ListValue list;
+    /** The parse epoch of interpreter when this block was created. */
+    private final int epoch;
+    private Node[] stmts = new Node[4];
+    /** Number of statements parsed so far. */
+    private int size;
+    /** Index of element where parsing stopped. */
+    private int parsedTo;
+
+    /**
+     * @param list the list body.
+     * @param epoch the current parse epoch of interpreter.
+     */
+    public Block(ListValue list, int epoch) {
+        this.list = list;
+        this.epoch = epoch;
+    }
+
+    /**
+     * A block parsed at once, which is never changed by running it, so it can be run by many threads.
+     * @param list the list body.
+     * @param epoch the current parse epoch of interpreter.
+     * @param stmts all the statements of list.
+     */
+    Block(ListValue list, int epoch, Node[] stmts) {
+        this.list = list;
+        this.epoch = epoch;
+        this.stmts = stmts;
+        this.size = stmts.length;
+        this.parsedTo = list.size();
+    }
+
+    /**
+     * @return whether all statements are parsed.
+     */
+    boolean isComplete() {
+        return parsedTo >= list.size();
+    }
+
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Run the statements in order, until the end or a [return].
+     * @param in the interpreter.
+     * @param tail whether the block is in tail position of a function body.
+     *             If it is, a call in its own tail position is returned as a {@link TailCall}.
+     * @return the value of the last statement.
+     */
+    Value run(Interpreter in, boolean tail) {
+        Value res = null;
+        for(int i=0; ; i++) {
+            if(i == size) {
+                if(parsedTo >= list.size())
+                    break;
+                TokenStream ts = new TokenStream(list, parsedTo);
+                Node stmt = in.getParser().parseStatement(ts);
+                if(size == stmts.length)
+                    stmts = Arrays.copyOf(stmts, size * 2);
+                stmts[size++] = stmt;
+                parsedTo = ts.position();
+            }
+            Node stmt = stmts[i];
+            boolean isReturn = stmt instanceof Node.Return;
+            if(tail && (isReturn || (i == size - 1 && parsedTo >= list.size())))
+                res = stmt.evalTail(in);
+            else
+                res = stmt.eval(in);
+            if(isReturn)
+                break;
+        }
+        return res;
+    }
+}
@@ -0,0 +1,24 @@
+package mua;
+
+/**
+ * true or false. There are only two instances, {@link Value#TRUE} and {@link Value#FALSE}.
+ */
+public final class BoolValue extends Value {
+    private final boolean val;
+
+    BoolValue(boolean val) {
+        this.val = val;
+    }
+
+    public boolean getBool() {
+        return val;
+    }
+
+    public int getType() {
+        return Interpreter.BOOl_;
+    }
+
+    public String getVal() {
+        return val ? "true" : "false";
+    }
+}
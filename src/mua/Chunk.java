@@ -0,0 +1,54 @@
+package mua;
+
+/**
+ * Compiled code of a list body for the {@link VM}:
+ * an instruction array with its constants and referenced objects.
+ */
+final class Chunk {
+    /** - CONST k : push consts[k] */
+    static final int CONST = 0;
+    /** - LOCAL i k : push the parameter in slot i, refs[k] is its {@link Node.Var} */
+    static final int LOCAL = 1;
+    /** - VAR k : push the variable, refs[k] is the {@link Node.Var} */
+    static final int VAR = 2;
+    /** - PRIM k n : pop n values, push the result of primitive refs[k] */
+    static final int PRIM = 3;
+    /** - PRIM_TAIL k n : the same as PRIM, in tail position of a function body */
+    static final int PRIM_TAIL = 4;
+    /** - CALL k n : pop n values, push the result of user function named refs[k] */
+    static final int CALL = 5;
+    /** - TAIL k n : pop n values, push a {@link TailCall} of user function named refs[k] */
+    static final int TAIL = 6;
+    /** - JUMP_FALSE t : pop a bool, go to t if it is false */
+    static final int JUMP_FALSE = 7;
+    /** - JUMP t : go to t */
+    static final int JUMP = 8;
+    /** - POP : drop the top value */
+    static final int POP = 9;
+    /** - RETURN : pop the top value and return it */
+    static final int RETURN = 10;
+    /** - TREE k t : run the list consts[k] with the tree walking interpreter, in tail position if t is 1 */
+    static final int TREE = 11;
+    /**
+     * - REPARSE k t e : if a function got another number of parameters since this chunk was compiled,
+     * push the value of the rest list consts[k], run with the tree walking interpreter
+     * in tail position if t is 1, and go to e
+     */
+    static final int REPARSE = 12;
+
+    final int[] code;
+    final Value[] consts;
+    final Object[] refs;
+    /** The max number of values this chunk pushes on the stack. */
+    final int maxStack;
+    /** The parse epoch of interpreter when this chunk was compiled. */
+    final int epoch;
+
+    Chunk(int[] code, Value[] consts, Object[] refs, int maxStack, int epoch) {
+        this.code = code;
+        this.consts = consts;
+        this.refs = refs;
+        this.maxStack = maxStack;
+        this.epoch = epoch;
+    }
+}
@@ -0,0 +1,324 @@
+package mua;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A small writer of JVM class files, enough for {@link FunctionCompiler}.
+ * The class file version is 49, so the methods need no stack map frames.
+ */
+final class ClassFile {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    /* Opcodes used by the compiler */
+    static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, DCONST_0 = 0x0e, BIPUSH = 0x10, SIPUSH = 0x11,
+            LDC_W = 0x13, LDC2_W = 0x14, ALOAD = 0x19, AALOAD = 0x32, ASTORE = 0x3a,
+            POP = 0x57, DUP = 0x59, DUP2 = 0x5c, DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f,
+            DREM = 0x73, IAND = 0x7e, IOR = 0x80, DCMPL = 0x97, IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d,
+            IFLE = 0x9e, IF_ICMPNE = 0xa0, GOTO = 0xa7, ARETURN = 0xb0, RETURN = 0xb1,
+            GETSTATIC = 0xb2, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8,
+            NEW = 0xbb, ATHROW = 0xbf;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private int poolCount = 1;
+    private final HashMap<String, Integer> poolIndex = new HashMap<>();
+
+    private final String name;
+    private final ArrayList<byte[]> fields = new ArrayList<>();
+    private final ArrayList<byte[]> methods = new ArrayList<>();
+
+    /**
+     * @param name the internal name of class, e.g. mua/Compiled.
+     */
+    ClassFile(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /* ---- constant pool ---- */
+
+    private int entry(String key, int tag, Object... parts) {
+        Integer index = poolIndex.get(key);
+        if(index != null)
+            return index;
+        try {
+            poolOut.writeByte(tag);
+            for (Object part : parts) {
+                if(part instanceof String)
+                    poolOut.writeUTF((String) part);
+                else if(part instanceof Double)
+                    poolOut.writeDouble((Double) part);
+                else if(part instanceof Integer && tag == 3)
+                    poolOut.writeInt((Integer) part);
+                else
+                    poolOut.writeShort((Integer) part);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        index = poolCount;
+        poolCount += tag == 6 ? 2 : 1;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    int utf8(String s) {
+        return entry("U" + s, 1, s);
+    }
+
+    int integer(int i) {
+        return entry("I" + i, 3, i);
+    }
+
+    int dbl(double d) {
+        return entry("D" + Double.doubleToRawLongBits(d), 6, d);
+    }
+
+    int cls(String internalName) {
+        return entry("C" + internalName, 7, utf8(internalName));
+    }
+
+    private int nameType(String n, String desc) {
+        return entry("N" + n + ":" + desc, 12, utf8(n), utf8(desc));
+    }
+
+    int field(String owner, String n, String desc) {
+        return entry("F" + owner + "." + n + ":" + desc, 9, cls(owner), nameType(n, desc));
+    }
+
+    int method(String owner, String n, String desc) {
+        return entry("M" + owner + "." + n + ":" + desc, 10, cls(owner), nameType(n, desc));
+    }
+
+    /* ---- members ---- */
+
+    void addField(int access, String n, String desc) {
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(res);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(n));
+            out.writeShort(utf8(desc));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(res.toByteArray());
+    }
+
+    /**
+     * @param access the access flags.
+     * @param n the name of method.
+     * @param desc the descriptor of method.
+     * @param code the code, finished.
+     */
+    void addMethod(int access, String n, String desc, Code code) {
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(res);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(n));
+            out.writeShort(utf8(desc));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            int handlers = code.handlers.size() / 4;
+            out.writeInt(12 + code.size + handlers * 8);
+            out.writeShort(code.maxStack + 2);
+            out.writeShort(code.maxLocals);
+            out.writeInt(code.size);
+            out.write(code.bytes, 0, code.size);
+            out.writeShort(handlers);
+            for (int h : code.handlers)
+                out.writeShort(h);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methods.add(res.toByteArray());
+    }
+
+    /**
+     * @param superName the internal name of super class.
+     * @param interfaces the internal names of interfaces.
+     * @return the bytes of class file.
+     */
+    byte[] toBytes(String superName, String... interfaces) {
+        int thisIndex = cls(name);
+        int superIndex = cls(superName);
+        int[] interfaceIndex = new int[interfaces.length];
+        for(int i=0; i<interfaces.length; i++)
+            interfaceIndex[i] = cls(interfaces[i]);
+
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(res);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(interfaceIndex.length);
+            for (int i : interfaceIndex)
+                out.writeShort(i);
+            out.writeShort(fields.size());
+            for (byte[] f : fields)
+                out.write(f);
+            out.writeShort(methods.size());
+            for (byte[] m : methods)
+                out.write(m);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return res.toByteArray();
+    }
+
+    /** A jump target in {@link Code}. */
+    static final class Label {
+        int pos = -1;
+        /** Positions of branch instructions waiting for this label. */
+        final ArrayList<Integer> from = new ArrayList<>();
+    }
+
+    /** The code of one method. */
+    static final class Code {
+        private byte[] bytes = new byte[64];
+        private int size;
+        private int stack;
+        private int maxStack;
+        int maxLocals;
+        private final ArrayList<Integer> handlers = new ArrayList<>();
+
+        /**
+         * @param maxLocals the number of local slots used by parameters.
+         */
+        Code(int maxLocals) {
+            this.maxLocals = maxLocals;
+        }
+
+        private void u1(int b) {
+            if(size == bytes.length)
+                bytes = Arrays.copyOf(bytes, size * 2);
+            bytes[size++] = (byte) b;
+        }
+
+        private void u2(int s) {
+            u1(s >> 8);
+            u1(s);
+        }
+
+        /**
+         * @param delta the change of stack depth made by the instruction.
+         */
+        private void stack(int delta) {
+            stack += delta;
+            if(stack > maxStack)
+                maxStack = stack;
+        }
+
+        /**
+         * @param op an instruction without operand.
+         * @param delta the change of stack depth.
+         */
+        void op(int op, int delta) {
+            u1(op);
+            stack(delta);
+        }
+
+        /**
+         * @param op an instruction with a constant pool index.
+         * @param index the index.
+         * @param delta the change of stack depth.
+         */
+        void op2(int op, int index, int delta) {
+            u1(op);
+            u2(index);
+            stack(delta);
+        }
+
+        void iconst(ClassFile cf, int i) {
+            if(i >= 0 && i <= 5)
+                op(ICONST_0 + i, 1);
+            else if(i >= -128 && i < 128) {
+                u1(BIPUSH);
+                u1(i);
+                stack(1);
+            }
+            else if(i >= -32768 && i < 32768) {
+                u1(SIPUSH);
+                u2(i);
+                stack(1);
+            }
+            else
+                op2(LDC_W, cf.integer(i), 1);
+        }
+
+        void local(int op, int slot, int delta) {
+            if(slot > 255)
+                throw new IllegalStateException("Too many locals");
+            u1(op);
+            u1(slot);
+            stack(delta);
+            if(slot + 1 > maxLocals)
+                maxLocals = slot + 1;
+        }
+
+        void jump(int op, Label target, int delta) {
+            stack(delta);
+            int at = size;
+            u1(op);
+            if(target.pos >= 0)
+                u2(target.pos - at);
+            else {
+                target.from.add(at);
+                u2(0);
+            }
+        }
+
+        void mark(Label label) {
+            label.pos = size;
+            for (int at : label.from) {
+                int offset = size - at;
+                bytes[at + 1] = (byte) (offset >> 8);
+                bytes[at + 2] = (byte) offset;
+            }
+            label.from.clear();
+        }
+
+        /**
+         * Set the stack depth, at the start of code which is only reached by jumps.
+         */
+        void setStack(int depth) {
+            stack = depth;
+        }
+
+        int getStack() {
+            return stack;
+        }
+
+        void handler(Label start, Label end, Label handler, int catchType) {
+            handlers.add(start.pos);
+            handlers.add(end.pos);
+            handlers.add(handler.pos);
+            handlers.add(catchType);
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
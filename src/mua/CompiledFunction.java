@@ -0,0 +1,12 @@
+package mua;
+
+/**
+ * A user function compiled to JVM bytecode by {@link FunctionCompiler}.
+ */
+public interface CompiledFunction {
+    /**
+     * @param args the values of parameters.
+     * @return the return value of function, or null if the call has to be run by the interpreter.
+     */
+    Value call(Value[] args);
+}
@@ -0,0 +1,224 @@
+package mua;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compile parsed code into a {@link Chunk} for the {@link VM}.
+ * [if] with literal lists is compiled into jumps, with both lists inlined.
+ */
+final class Compiler {
+    private final Interpreter in;
+    /** The function whose body is compiled, whose parameters are read by slot. null if none. */
+    private final Function ctx;
+    private int[] code = new int[32];
+    private int size;
+    private final ArrayList<Value> consts = new ArrayList<>();
+    private final ArrayList<Object> refs = new ArrayList<>();
+    private int depth;
+    private int maxDepth;
+
+    private Compiler(Interpreter in, Function ctx) {
+        this.in = in;
+        this.ctx = ctx;
+    }
+
+    /**
+     * Compile a list body.
+     * @param in the interpreter.
+     * @param list the list body.
+     * @param ctx the function whose body is the list, null if it is not a function body.
+     * @param tail whether the list is run in tail position of a function body.
+     * @param epoch the current parse epoch of interpreter.
+     * @return the chunk.
+     */
+    static Chunk compileList(Interpreter in, ListValue list, Function ctx, boolean tail, int epoch) {
+        Compiler c = new Compiler(in, ctx);
+        int[] ends = new int[list.size()];
+        Node[] stmts = in.getParser().parseAll(list, ends);
+        if(stmts == null) {
+            /* Some statement can only be parsed after the earlier ones are run */
+            c.emit(Chunk.TREE, c.constant(list), tail ? 1 : 0);
+            c.push(1);
+            c.emit(Chunk.RETURN);
+        }
+        else
+            c.block(list, stmts, ends, tail, true);
+        return c.finish(epoch);
+    }
+
+    /**
+     * Compile one statement, which is not in a function body.
+     * @param in the interpreter.
+     * @param stmt the statement.
+     * @param epoch the current parse epoch of interpreter.
+     * @return the chunk.
+     */
+    static Chunk compileStatement(Interpreter in, Node stmt, int epoch) {
+        Compiler c = new Compiler(in, null);
+        c.block(null, new Node[]{stmt}, null, false, true);
+        return c.finish(epoch);
+    }
+
+    private Chunk finish(int epoch) {
+        return new Chunk(Arrays.copyOf(code, size), consts.toArray(new Value[0]),
+                refs.toArray(), maxDepth, epoch);
+    }
+
+    /**
+     * Compile statements, which leave the value of the last one on the stack.
+     * A statement may redefine a function with another number of parameters, so the statements after it
+     * were parsed with the old one. Then the rest of list is run by the tree walker, which parses it again.
+     * @param list the list of statements, null if there is only one statement.
+     * @param stmts the statements.
+     * @param ends the index of element after each statement.
+     * @param tail whether the statements are in tail position of a function body.
+     * @param top if true, the value is returned, otherwise it is left for the code after.
+     */
+    private void block(ListValue list, Node[] stmts, int[] ends, boolean tail, boolean top) {
+        ArrayList<Integer> reparses = new ArrayList<>();
+        if(stmts.length == 0) {
+            emit(Chunk.CONST, constant(null));
+            push(1);
+        }
+        for(int i=0; i<stmts.length; i++) {
+            Node stmt = stmts[i];
+            if(stmt instanceof Node.Return) {
+                /* The statements after [return] are never run */
+                expr(((Node.Return) stmt).value, tail);
+                break;
+            }
+            boolean last = i == stmts.length - 1;
+            expr(stmt, tail && last);
+            if(!last) {
+                emit(Chunk.POP);
+                push(-1);
+                if(list != null) {
+                    emit(Chunk.REPARSE, constant(list.subList(ends[i], list.size())), tail ? 1 : 0, 0);
+                    reparses.add(size - 1);
+                }
+            }
+        }
+        for (int at : reparses)
+            code[at] = size;
+        if(top) {
+            emit(Chunk.RETURN);
+            push(-1);
+        }
+    }
+
+    private void expr(Node n, boolean tail) {
+        if(n instanceof Node.Literal) {
+            emit(Chunk.CONST, constant(((Node.Literal) n).value));
+            push(1);
+        }
+        else if(n instanceof Node.Var) {
+            Node.Var var = (Node.Var) n;
+            int slot = ctx == null ? -1 : ctx.slotOf(var.name);
+            if(slot >= 0)
+                emit(Chunk.LOCAL, slot, ref(var));
+            else
+                emit(Chunk.VAR, ref(var));
+            push(1);
+        }
+        else if(n instanceof Node.Call) {
+            Node.Call call = (Node.Call) n;
+            if(call.prim == in.getPrimitive("if") && inlineIf(call, tail))
+                return;
+            if(call.prim == in.getPrimitive("run") && inlineRun(call, tail))
+                return;
+            for (Node arg : call.args)
+                expr(arg, false);
+            emit(tail ? Chunk.PRIM_TAIL : Chunk.PRIM, ref(call.prim), call.args.length);
+            push(1 - call.args.length);
+        }
+        else if(n instanceof Node.FuncCall) {
+            Node.FuncCall call = (Node.FuncCall) n;
+            for (Node arg : call.args)
+                expr(arg, false);
+            emit(tail ? Chunk.TAIL : Chunk.CALL, ref(call.name), call.args.length);
+            push(1 - call.args.length);
+        }
+        else if(n instanceof Node.Return) {
+            expr(((Node.Return) n).value, tail);
+        }
+        else {
+            throw new IllegalStateException("Unknown node " + n);
+        }
+    }
+
+    /**
+     * - if <bool> [list1] [list2]
+     * @return false if the lists are not literal, or cannot be parsed yet.
+     */
+    private boolean inlineIf(Node.Call call, boolean tail) {
+        ListValue list1 = literalList(call.args[1]);
+        ListValue list2 = literalList(call.args[2]);
+        if(list1 == null || list2 == null)
+            return false;
+        int[] ends1 = new int[list1.size()];
+        int[] ends2 = new int[list2.size()];
+        Node[] branch1 = in.getParser().parseAll(list1, ends1);
+        Node[] branch2 = in.getParser().parseAll(list2, ends2);
+        if(branch1 == null || branch2 == null)
+            return false;
+
+        expr(call.args[0], false);
+        emit(Chunk.JUMP_FALSE, 0);
+        push(-1);
+        int toElse = size - 1;
+        block(list1, branch1, ends1, tail, false);
+        emit(Chunk.JUMP, 0);
+        int toEnd = size - 1;
+        push(-1);
+        code[toElse] = size;
+        block(list2, branch2, ends2, tail, false);
+        code[toEnd] = size;
+        return true;
+    }
+
+    /**
+     * - run [list]
+     * @return false if the list is not literal, or cannot be parsed yet.
+     */
+    private boolean inlineRun(Node.Call call, boolean tail) {
+        ListValue list = literalList(call.args[0]);
+        if(list == null)
+            return false;
+        int[] ends = new int[list.size()];
+        Node[] body = in.getParser().parseAll(list, ends);
+        if(body == null)
+            return false;
+        block(list, body, ends, tail, false);
+        return true;
+    }
+
+    private static ListValue literalList(Node n) {
+        if(!(n instanceof Node.Literal) || !((Node.Literal) n).value.isList())
+            return null;
+        return (ListValue) ((Node.Literal) n).value;
+    }
+
+    private int constant(Value v) {
+        consts.add(v);
+        return consts.size() - 1;
+    }
+
+    private int ref(Object o) {
+        refs.add(o);
+        return refs.size() - 1;
+    }
+
+    private void push(int n) {
+        depth += n;
+        if(depth > maxDepth)
+            maxDepth = depth;
+    }
+
+    private void emit(int... ops) {
+        if(size + ops.length > code.length)
+            code = Arrays.copyOf(code, Math.max(code.length * 2, size + ops.length));
+        for (int op : ops)
+            code[size++] = op;
+    }
+}
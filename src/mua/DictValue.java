@@ -0,0 +1,126 @@
+package mua;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A hash table, made by [dict] and changed by [put].
+ * Like an array, a dict is changed in place. Two keys are the same key if they have the same type
+ * and the same value: numbers by value, so 3 and 3.0 are the same key, words by text, bools by value.
+ * Unlike [eq], a word is never the same key as a number or a bool, e.g. "true and true are two keys.
+ * Whole number keys are kept unboxed, in an open addressing table of longs.
+ */
+public final class DictValue extends Value {
+    /* The table of whole number keys, a slot is used if its value is not null */
+    private long[] keys = new long[8];
+    private Value[] vals = new Value[8];
+    private int count;
+    /** The other keys: a Double for a number, a String for a word, a Boolean for a bool. */
+    private final HashMap<Object, Value> others = new HashMap<>();
+
+    public int getType() {
+        return Interpreter.DICT_;
+    }
+
+    /**
+     * @param key the key, a number, word or bool.
+     * @return the value, null if there is no such key.
+     */
+    Value get(Value key) {
+        if(isWholeKey(key)) {
+            int i = slot(((NumberValue) key).longValue());
+            return vals[i];
+        }
+        return others.get(other(key));
+    }
+
+    /**
+     * @param key the key, a number, word or bool.
+     * @param v the value.
+     */
+    void put(Value key, Value v) {
+        if(!isWholeKey(key)) {
+            others.put(other(key), v);
+            return;
+        }
+        long k = ((NumberValue) key).longValue();
+        int i = slot(k);
+        if(vals[i] == null) {
+            if((count + 1) * 4 > keys.length * 3) {
+                grow();
+                i = slot(k);
+            }
+            keys[i] = k;
+            count++;
+        }
+        vals[i] = v;
+    }
+
+    private static boolean isWholeKey(Value key) {
+        return key instanceof NumberValue && ((NumberValue) key).isWhole();
+    }
+
+    private static Object other(Value key) {
+        if(key.getType() == Interpreter.NUMBER_)
+            return key.getNumber();
+        if(key.getType() == Interpreter.BOOl_)
+            return key == Value.TRUE;
+        return key.getVal();
+    }
+
+    /**
+     * @return the slot of key, or the empty slot where it would be put.
+     */
+    private int slot(long k) {
+        int mask = keys.length - 1;
+        int i = Long.hashCode(k * 0x9E3779B97F4A7C15L) & mask;
+        while (vals[i] != null && keys[i] != k)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Value[] oldVals = vals;
+        keys = new long[oldKeys.length * 2];
+        vals = new Value[oldKeys.length * 2];
+        for(int i=0; i<oldKeys.length; i++) {
+            if(oldVals[i] != null) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                vals[j] = oldVals[i];
+            }
+        }
+    }
+
+    public String getVal() {
+        StringBuilder res = new StringBuilder();
+        appendTo(res);
+        return res.toString();
+    }
+
+    /**
+     * The pairs of key and value in braces, like {1 a b 2.0}, in no order.
+     */
+    void appendTo(StringBuilder sb) {
+        sb.append('{');
+        boolean first = true;
+        for(int i=0; i<keys.length; i++) {
+            if(vals[i] == null)
+                continue;
+            if(!first)
+                sb.append(' ');
+            first = false;
+            sb.append(keys[i]).append(' ');
+            vals[i].appendTo(sb);
+        }
+        for (Map.Entry<Object, Value> e : others.entrySet()) {
+            if(!first)
+                sb.append(' ');
+            first = false;
+            sb.append(e.getKey()).append(' ');
+            e.getValue().appendTo(sb);
+        }
+        sb.append('}');
+    }
+}
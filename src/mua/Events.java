@@ -0,0 +1,124 @@
+package mua;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the interpreter, in the category MUA of a recording.
+ * The event classes are only loaded once the recorder is started, by -XX:StartFlightRecording or jcmd,
+ * since loading the first event class starts the whole recorder. Until then an event costs a volatile read.
+ * Each begin method returns the event begun, or null if it is not recorded, which is passed to the end method.
+ */
+final class Events {
+    private Events() {
+    }
+
+    @Name("mua.FunctionCall")
+    @Label("Function Call")
+    @Category("MUA")
+    @Description("A call of user function, from entry to exit. Calls in tail position are part of it.")
+    static final class FunctionCall extends Event {
+        @Label("Function")
+        String function;
+        @Label("Depth")
+        @Description("The number of frames below the call")
+        int depth;
+    }
+
+    @Name("mua.Load")
+    @Label("Load")
+    @Category("MUA")
+    @Description("The file run by [load]")
+    static final class Load extends Event {
+        @Label("File")
+        String file;
+    }
+
+    @Name("mua.ListOperation")
+    @Label("List Operation")
+    @Category("MUA")
+    @Description("Reading a list from the code, or taking elements of a list or word")
+    static final class ListOperation extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Size")
+        int size;
+    }
+
+    /**
+     * @return whether the recorder is started, even if no event of the interpreter is enabled.
+     */
+    static boolean isRecording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    static Object beginCall() {
+        if(!FlightRecorder.isInitialized())
+            return null;
+        FunctionCall res = new FunctionCall();
+        if(!res.isEnabled())
+            return null;
+        res.begin();
+        return res;
+    }
+
+    static void endCall(Object event, Function F, int depth) {
+        if(event == null)
+            return;
+        FunctionCall e = (FunctionCall) event;
+        if(e.shouldCommit()) {
+            e.function = F.getFuncName();
+            e.depth = depth;
+            e.commit();
+        }
+    }
+
+    static Object beginLoad() {
+        if(!FlightRecorder.isInitialized())
+            return null;
+        Load res = new Load();
+        if(!res.isEnabled())
+            return null;
+        res.begin();
+        return res;
+    }
+
+    static void endLoad(Object event, String fileName) {
+        if(event == null)
+            return;
+        Load e = (Load) event;
+        if(e.shouldCommit()) {
+            e.file = fileName;
+            e.commit();
+        }
+    }
+
+    static Object beginList() {
+        if(!FlightRecorder.isInitialized())
+            return null;
+        ListOperation res = new ListOperation();
+        if(!res.isEnabled())
+            return null;
+        res.begin();
+        return res;
+    }
+
+    /**
+     * @param operation the name of operation.
+     * @param size the number of elements, or characters of a word.
+     */
+    static void endList(Object event, String operation, int size) {
+        if(event == null)
+            return;
+        ListOperation e = (ListOperation) event;
+        if(e.shouldCommit()) {
+            e.operation = operation;
+            e.size = size;
+            e.commit();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package mua;
+
+import java.util.Arrays;
+
+/**
+ * The variables of one function call, or the global variables.
+ * Variables are found by the ids of their names, see {@link Symbols}.
+ * Parameters live in slots resolved when the function is defined,
+ * other variables made during the call are kept in a small array which is searched in order.
+ * The global frame keeps its variables in an array indexed by id.
+ */
+public class Frame {
+    /** The function being called, null for the global frame. */
+    Function func;
+    /** The values of parameters. */
+    Value[] slots;
+    /** Ids and values of the other variables of a call, in [0, count). */
+    private int[] ids;
+    private Value[] vals;
+    private int count;
+    /** The global variables, indexed by id. */
+    private Value[] table;
+
+    /**
+     * @param func the function being called, null for the global frame.
+     * @param slots the values of parameters, owned by the frame from now on.
+     */
+    public Frame(Function func, Value[] slots) {
+        this.func = func;
+        this.slots = slots;
+        if(func == null)
+            table = new Value[64];
+    }
+
+    /**
+     * Used by a call in tail position, which replaces the current call.
+     * @param func the function being called.
+     * @param slots the values of parameters.
+     */
+    void reuse(Function func, Value[] slots) {
+        this.func = func;
+        this.slots = slots;
+        if(count > 0)
+            Arrays.fill(vals, 0, count, null);
+        count = 0;
+    }
+
+    private int indexOf(int id) {
+        for(int i=0; i<count; i++) {
+            if(ids[i] == id)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param id the id of name of variable.
+     * @return the value, null if there is no such variable in this frame.
+     */
+    public Value get(int id) {
+        if(func == null)
+            return id < table.length ? table[id] : null;
+        int slot = func.slotOf(id);
+        if(slot >= 0 && slots[slot] != null)
+            return slots[slot];
+        int i = indexOf(id);
+        if(i >= 0)
+            return vals[i];
+        if(func.getNameId() == id)
+            return func.getSelf();
+        return null;
+    }
+
+    public void put(int id, Value v) {
+        if(func == null) {
+            if(id >= table.length)
+                table = Arrays.copyOf(table, Math.max(table.length * 2, id + 1));
+            table[id] = v;
+            return;
+        }
+        int slot = func.slotOf(id);
+        if(slot >= 0) {
+            slots[slot] = v;
+            return;
+        }
+        int i = indexOf(id);
+        if(i >= 0) {
+            vals[i] = v;
+            return;
+        }
+        if(ids == null) {
+            ids = new int[4];
+            vals = new Value[4];
+        }
+        else if(count == ids.length) {
+            ids = Arrays.copyOf(ids, count * 2);
+            vals = Arrays.copyOf(vals, count * 2);
+        }
+        ids[count] = id;
+        vals[count++] = v;
+    }
+
+    /**
+     * @param id the id of name of variable.
+     * @return the value removed, null if there is no such variable in this frame.
+     */
+    public Value remove(int id) {
+        if(func == null) {
+            if(id >= table.length)
+                return null;
+            Value res = table[id];
+            table[id] = null;
+            return res;
+        }
+        int slot = func.slotOf(id);
+        if(slot >= 0 && slots[slot] != null) {
+            Value res = slots[slot];
+            slots[slot] = null;
+            return res;
+        }
+        int i = indexOf(id);
+        if(i < 0)
+            return null;
+        Value res = vals[i];
+        count--;
+        ids[i] = ids[count];
+        vals[i] = vals[count];
+        vals[count] = null;
+        return res;
+    }
+
+    /**
+     * @return the global variables indexed by id, where null is unbound. Only for the global frame.
+     */
+    Value[] globals() {
+        return table;
+    }
+
+    public boolean contains(int id) {
+        return get(id) != null;
+    }
+}
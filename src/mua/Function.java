@@ -1,28 +1,85 @@
 package mua;
 
-import java.util.HashMap;
-
 public class Function {
-    public HashMap localVarTable;
     private String funcName;
-    private Value funcBody;
-    private Value paraList;
+    private ListValue funcBody;
+    private ListValue paraList;
+    /** Names of parameters, the index is the slot of parameter in a call frame. */
+    private String[] paraNames;
+    /** Ids of the names of parameters, see {@link Symbols}. */
+    private int[] paraIds;
+    private int nameId;
+    /** The function itself, which is visible by its name inside the function. */
+    private Value self;
+    /** Compiled code of the body, cached by the {@link VM}. */
+    private Chunk chunk;
+    /** The number of calls, counted until the function is compiled. */
+    private int calls;
+    /** The body compiled to JVM bytecode by {@link FunctionCompiler}, null if it is not hot yet. */
+    private CompiledFunction compiled;
+    /** The parse epoch of interpreter when the function is compiled. */
+    private int compiledEpoch;
+    /** Whether the function is pure, see {@link Purity}, checked at the define epoch pureEpoch. */
+    private boolean pure;
+    private int pureEpoch = -1;
 
-    public Function(String funcName, Value paraList, Value funcBody) {
+    /**
+     * @param funcName the name of function, empty for a function value.
+     * @param paraList the names of parameters.
+     * @param funcBody the body.
+     * @param symbols the table of names of interpreter which defines the function.
+     */
+    public Function(String funcName, ListValue paraList, ListValue funcBody, Symbols symbols) {
         this.funcName = funcName;
         this.paraList = paraList;
         this.funcBody = funcBody;
-        localVarTable = new HashMap<String, Value>();
+        this.nameId = symbols.intern(funcName);
+        paraNames = new String[paraList.size()];
+        paraIds = new int[paraNames.length];
+        for(int i=0; i<paraNames.length; i++) {
+            paraNames[i] = paraList.get(i).getVal();
+            paraIds[i] = symbols.of(paraList.get(i));
+        }
+        self = new ListValue(new Value[]{paraList, funcBody}, Interpreter.FUNCTION_);
     }
 
-    public HashMap getLocalVarTable() {return localVarTable;}
-    public void setLocalVarTable(HashMap h) {localVarTable = h;}
     public String getFuncName() {return funcName;}
-    public Value getParaList() {return paraList;}
-    public Value getFuncBody() {return funcBody;}
-    public String setValue() {
-        String val = "";
-        val = "[" + paraList.getVal() + funcBody.getVal() + "]";
-        return val;
+    public ListValue getParaList() {return paraList;}
+    public ListValue getFuncBody() {return funcBody;}
+    public int getArity() {return paraNames.length;}
+    int getNameId() {return nameId;}
+    public Value getSelf() {return self;}
+    Chunk getChunk() {return chunk;}
+    void setChunk(Chunk c) {this.chunk = c;}
+    CompiledFunction getCompiled() {return compiled;}
+    int getCompiledEpoch() {return compiledEpoch;}
+    void setCompiled(CompiledFunction c, int epoch) {this.compiled = c; this.compiledEpoch = epoch;}
+    int countCall() {return ++calls;}
+    boolean isPure() {return pure;}
+    int getPureEpoch() {return pureEpoch;}
+    void setPure(boolean pure, int epoch) {this.pure = pure; this.pureEpoch = epoch;}
+
+    /**
+     * @param name the name of variable.
+     * @return the slot of parameter with the name, -1 if it is not a parameter.
+     */
+    public int slotOf(String name) {
+        for(int i=0; i<paraNames.length; i++) {
+            if(paraNames[i].equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param id the id of name of variable.
+     * @return the slot of parameter with the name, -1 if it is not a parameter.
+     */
+    int slotOf(int id) {
+        for(int i=0; i<paraIds.length; i++) {
+            if(paraIds[i] == id)
+                return i;
+        }
+        return -1;
     }
 }
@@ -0,0 +1,404 @@
+package mua;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+
+import static mua.ClassFile.*;
+
+/**
+ * Compile hot user functions to JVM bytecode, loaded as hidden classes.
+ *
+ * Only the functions which compute values without side effects are compiled:
+ * their bodies use parameters, literals, arithmetic, compare, logic,
+ * [if] with literal lists and calls of the function itself. A call in tail position becomes a jump.
+ * Since the body changes nothing, compiled code which meets what it cannot handle
+ * (a value of other type, a division by 0) gives up, and the interpreter runs the call again from the start.
+ * Other functions, and the functions called less than the threshold, stay interpreted.
+ */
+final class FunctionCompiler {
+    /** The number of calls before a function is compiled, by default. */
+    static final int HOT_THRESHOLD = 1000;
+
+    private static final String CLASS = "mua/CompiledBody";
+    private static final String VALUE = "mua/Value";
+    private static final String VALUE_DESC = "Lmua/Value;";
+    private static final String SELF = "mua/FunctionCompiler";
+    private static final String GIVE_UP = "mua/FunctionCompiler$GiveUp";
+
+    /** Set to a function which cannot be compiled, so it is not tried again. */
+    private static final CompiledFunction NOT_COMPILED = args -> null;
+
+    /** Thrown by compiled code to give the call back to the interpreter. */
+    static final class GiveUp extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        GiveUp() {
+            super(null, null, false, false);
+        }
+    }
+
+    static final GiveUp GIVE_UP_ = new GiveUp();
+
+    /** Thrown while compiling a body which cannot be compiled. */
+    private static final class Unsupported extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String msg) {
+            super(msg, null, false, false);
+        }
+    }
+
+    private final Interpreter in;
+    private final Function F;
+    private final ClassFile cf = new ClassFile(CLASS);
+    private final ArrayList<Value> consts = new ArrayList<>();
+    private final String runDesc;
+    private Code code;
+    private final Label start = new Label();
+
+    private FunctionCompiler(Interpreter in, Function F) {
+        this.in = in;
+        this.F = F;
+        StringBuilder desc = new StringBuilder("(");
+        for(int i=0; i<F.getArity(); i++)
+            desc.append(VALUE_DESC);
+        runDesc = desc.append(")").append(VALUE_DESC).toString();
+    }
+
+    /**
+     * Run the call with compiled code, and compile the function when it becomes hot.
+     * @param in the interpreter.
+     * @param F the function.
+     * @param args the values of parameters.
+     * @return the return value, or null if the call has to be run by the interpreter.
+     */
+    static Value tryCall(Interpreter in, Function F, Value[] args) {
+        CompiledFunction compiled = F.getCompiled();
+        if(compiled == null) {
+            int threshold = in.getHotThreshold();
+            if(threshold <= 0 || F.countCall() < threshold)
+                return null;
+            compiled = compile(in, F);
+            F.setCompiled(compiled == null ? NOT_COMPILED : compiled, in.getParseEpoch());
+            if(compiled == null)
+                return null;
+        }
+        else if(F.getCompiledEpoch() != in.getParseEpoch()) {
+            /* Compiled from code parsed before, e.g. with a constant inlined which is bound again.
+               An interpreter which never compiles only reads the function, see Interpreter#fork */
+            if(in.getHotThreshold() > 0)
+                F.setCompiled(null, in.getParseEpoch());
+            return null;
+        }
+        return compiled.call(args);
+    }
+
+    /**
+     * @param in the interpreter.
+     * @param F the function.
+     * @return the compiled function, null if the body cannot be compiled.
+     */
+    static CompiledFunction compile(Interpreter in, Function F) {
+        Node[] body = in.getParser().parseAll(F.getFuncBody());
+        if(body == null)
+            return null;
+        try {
+            FunctionCompiler c = new FunctionCompiler(in, F);
+            byte[] bytes = c.generate(body);
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            Class<?> cls = lookup.lookupClass();
+            lookup.findStaticSetter(cls, "K", Value[].class).invoke(c.consts.toArray(new Value[0]));
+            return (CompiledFunction) lookup.findConstructor(cls, MethodType.methodType(void.class)).invoke();
+        } catch (Unsupported e) {
+            return null;
+        } catch (Throwable e) {
+            /* The class is rejected by the JVM, keep interpreting */
+            return null;
+        }
+    }
+
+    /* ---- called by compiled code ---- */
+
+    static double number(Value v) {
+        if(v.getType() != Interpreter.NUMBER_)
+            throw GIVE_UP_;
+        return v.getNumber();
+    }
+
+    static boolean bool(Value v) {
+        if(v.getType() != Interpreter.BOOl_)
+            throw GIVE_UP_;
+        return v == Value.TRUE;
+    }
+
+    /* ---- code generation ---- */
+
+    private byte[] generate(Node[] body) throws Unsupported {
+        int n = F.getArity();
+        cf.addField(ACC_STATIC, "K", "[" + VALUE_DESC);
+
+        code = new Code(n);
+        code.mark(start);
+        body(body);
+        if(code.size() > 0xFFFF)
+            throw new Unsupported("Body too large");
+        cf.addMethod(ACC_PUBLIC | ACC_STATIC, "run", runDesc, code);
+
+        /* Value call(Value[] args), which checks the types before running */
+        Code c = new Code(2);
+        Label fallback = new Label();
+        for(int i=0; i<n; i++) {
+            c.local(ALOAD, 1, 1);
+            c.iconst(cf, i);
+            c.op(AALOAD, -1);
+            c.op2(INVOKEVIRTUAL, cf.method(VALUE, "getType", "()I"), 0);
+            c.iconst(cf, Interpreter.NUMBER_);
+            c.jump(IF_ICMPNE, fallback, -2);
+        }
+        Label tryStart = new Label(), tryEnd = new Label(), handler = new Label();
+        c.mark(tryStart);
+        for(int i=0; i<n; i++) {
+            c.local(ALOAD, 1, 1);
+            c.iconst(cf, i);
+            c.op(AALOAD, -1);
+        }
+        c.op2(INVOKESTATIC, cf.method(CLASS, "run", runDesc), 1 - n);
+        c.mark(tryEnd);
+        c.op(ARETURN, -1);
+        c.mark(handler);
+        c.setStack(1);
+        c.op(POP, -1);
+        c.mark(fallback);
+        c.op(ACONST_NULL, 1);
+        c.op(ARETURN, -1);
+        c.handler(tryStart, tryEnd, handler, cf.cls(GIVE_UP));
+        cf.addMethod(ACC_PUBLIC, "call", "([" + VALUE_DESC + ")" + VALUE_DESC, c);
+
+        Code init = new Code(1);
+        init.local(ALOAD, 0, 1);
+        init.op2(INVOKESPECIAL, cf.method("java/lang/Object", "<init>", "()V"), -1);
+        init.op(RETURN, 0);
+        cf.addMethod(ACC_PUBLIC, "<init>", "()V", init);
+
+        return cf.toBytes("java/lang/Object", "mua/CompiledFunction");
+    }
+
+    /**
+     * Compile a body in tail position, which returns its value.
+     * @param stmts the statements of body.
+     */
+    private void body(Node[] stmts) throws Unsupported {
+        if(stmts.length == 0)
+            throw new Unsupported("Empty body");
+        if(stmts[0] instanceof Node.Return)
+            ret(((Node.Return) stmts[0]).value);
+        else if(stmts.length == 1)
+            ret(stmts[0]);
+        else
+            throw new Unsupported("More than one statement");
+    }
+
+    /**
+     * Compile an expression in tail position.
+     */
+    private void ret(Node n) throws Unsupported {
+        Node[] then, otherwise;
+        if(n instanceof Node.Call && ((Node.Call) n).prim == in.getPrimitive("if")
+                && (then = literalBody(((Node.Call) n).args[1])) != null
+                && (otherwise = literalBody(((Node.Call) n).args[2])) != null) {
+            Label toElse = new Label();
+            cond(((Node.Call) n).args[0], toElse, false);
+            body(then);
+            code.mark(toElse);
+            code.setStack(0);
+            body(otherwise);
+        }
+        else if(n instanceof Node.Call && ((Node.Call) n).prim == in.getPrimitive("run")
+                && (then = literalBody(((Node.Call) n).args[0])) != null) {
+            body(then);
+        }
+        else if(isSelfCall(n)) {
+            /* A call of itself in tail position runs the body again with new parameters */
+            Node[] args = ((Node.FuncCall) n).args;
+            for (Node arg : args)
+                value(arg);
+            for(int i=args.length-1; i>=0; i--)
+                code.local(ASTORE, i, -1);
+            code.jump(GOTO, start, 0);
+        }
+        else {
+            value(n);
+            code.op(ARETURN, -1);
+        }
+    }
+
+    /**
+     * Push the value of expression.
+     */
+    private void value(Node n) throws Unsupported {
+        if(n instanceof Node.Literal) {
+            consts.add(((Node.Literal) n).value);
+            code.op2(GETSTATIC, cf.field(CLASS, "K", "[" + VALUE_DESC), 1);
+            code.iconst(cf, consts.size() - 1);
+            code.op(AALOAD, -1);
+        }
+        else if(n instanceof Node.Var) {
+            code.local(ALOAD, param((Node.Var) n), 1);
+        }
+        else if(isSelfCall(n)) {
+            Node[] args = ((Node.FuncCall) n).args;
+            for (Node arg : args)
+                value(arg);
+            code.op2(INVOKESTATIC, cf.method(CLASS, "run", runDesc), 1 - args.length);
+        }
+        else if(n instanceof Node.Call && isArithmetic(((Node.Call) n).op)) {
+            code.op2(NEW, cf.cls("mua/NumberValue"), 1);
+            code.op(DUP, 1);
+            number(n);
+            code.op2(INVOKESPECIAL, cf.method("mua/NumberValue", "<init>", "(D)V"), -3);
+        }
+        else if(n instanceof Node.Call && isLogic(((Node.Call) n).op)) {
+            Label isTrue = new Label(), end = new Label();
+            int depth = code.getStack();
+            cond(n, isTrue, true);
+            code.op2(GETSTATIC, cf.field(VALUE, "FALSE", VALUE_DESC), 1);
+            code.jump(GOTO, end, 0);
+            code.mark(isTrue);
+            code.setStack(depth);
+            code.op2(GETSTATIC, cf.field(VALUE, "TRUE", VALUE_DESC), 1);
+            code.mark(end);
+        }
+        else
+            throw new Unsupported("Cannot compile " + n);
+    }
+
+    /**
+     * Push the value of expression as a double.
+     */
+    private void number(Node n) throws Unsupported {
+        if(n instanceof Node.Literal) {
+            Value v = ((Node.Literal) n).value;
+            if(v.getType() != Interpreter.NUMBER_)
+                throw new Unsupported("Not a number " + v.getVal());
+            code.op2(LDC2_W, cf.dbl(v.getNumber()), 2);
+        }
+        else if(n instanceof Node.Call && isArithmetic(((Node.Call) n).op)) {
+            Node.Call call = (Node.Call) n;
+            number(call.args[0]);
+            number(call.args[1]);
+            switch (call.op) {
+                case "add": code.op(DADD, -2); break;
+                case "sub": code.op(DSUB, -2); break;
+                case "mul": code.op(DMUL, -2); break;
+                default: {
+                    Label notZero = new Label();
+                    code.op(DUP2, 2);
+                    code.op(DCONST_0, 2);
+                    code.op(DCMPL, -3);
+                    code.jump(IFNE, notZero, -1);
+                    code.op2(GETSTATIC, cf.field(SELF, "GIVE_UP_", "L" + GIVE_UP + ";"), 1);
+                    code.op(ATHROW, -1);
+                    code.mark(notZero);
+                    code.op(call.op.equals("div") ? DDIV : DREM, -2);
+                }
+            }
+        }
+        else {
+            value(n);
+            code.op2(INVOKESTATIC, cf.method(SELF, "number", "(" + VALUE_DESC + ")D"), 1);
+        }
+    }
+
+    /**
+     * Jump to target if the bool expression is the same as when.
+     */
+    private void cond(Node n, Label target, boolean when) throws Unsupported {
+        if(n instanceof Node.Literal) {
+            Value v = ((Node.Literal) n).value;
+            if(v.getType() != Interpreter.BOOl_)
+                throw new Unsupported("Not a bool " + v.getVal());
+            if((v == Value.TRUE) == when)
+                code.jump(GOTO, target, 0);
+            return;
+        }
+        if(n instanceof Node.Call && isLogic(((Node.Call) n).op)) {
+            Node.Call call = (Node.Call) n;
+            switch (call.op) {
+                case "eq":
+                case "gt":
+                case "lt":
+                    number(call.args[0]);
+                    number(call.args[1]);
+                    code.op2(INVOKESTATIC, cf.method("java/lang/Double", "compare", "(DD)I"), -3);
+                    if(call.op.equals("eq"))
+                        code.jump(when ? IFEQ : IFNE, target, -1);
+                    else if(call.op.equals("gt"))
+                        code.jump(when ? IFGT : IFLE, target, -1);
+                    else
+                        code.jump(when ? IFLT : IFGE, target, -1);
+                    return;
+                case "not":
+                    cond(call.args[0], target, !when);
+                    return;
+                default:
+                    /* Both sides of [and] and [or] are evaluated, as the interpreter does */
+                    bool(call.args[0]);
+                    bool(call.args[1]);
+                    code.op(call.op.equals("and") ? IAND : IOR, -1);
+                    code.jump(when ? IFNE : IFEQ, target, -1);
+                    return;
+            }
+        }
+        bool(n);
+        code.jump(when ? IFNE : IFEQ, target, -1);
+    }
+
+    /**
+     * Push the value of bool expression as an int.
+     */
+    private void bool(Node n) throws Unsupported {
+        if(n instanceof Node.Literal || n instanceof Node.Call && isLogic(((Node.Call) n).op)) {
+            Label isFalse = new Label(), end = new Label();
+            int depth = code.getStack();
+            cond(n, isFalse, false);
+            code.iconst(cf, 1);
+            code.jump(GOTO, end, 0);
+            code.mark(isFalse);
+            code.setStack(depth);
+            code.iconst(cf, 0);
+            code.mark(end);
+        }
+        else {
+            value(n);
+            code.op2(INVOKESTATIC, cf.method(SELF, "bool", "(" + VALUE_DESC + ")Z"), 0);
+        }
+    }
+
+    private int param(Node.Var var) throws Unsupported {
+        int slot = F.slotOf(var.name);
+        if(slot < 0)
+            throw new Unsupported("Not a parameter " + var.name);
+        return slot;
+    }
+
+    private boolean isSelfCall(Node n) {
+        return n instanceof Node.FuncCall && ((Node.FuncCall) n).name.equals(F.getFuncName())
+                && in.getFunction(F.getFuncName()) == F;
+    }
+
+    private boolean isArithmetic(String op) {
+        return op.equals("add") || op.equals("sub") || op.equals("mul") || op.equals("div") || op.equals("mod");
+    }
+
+    private boolean isLogic(String op) {
+        return op.equals("eq") || op.equals("gt") || op.equals("lt")
+                || op.equals("and") || op.equals("or") || op.equals("not");
+    }
+
+    private Node[] literalBody(Node n) {
+        if(!(n instanceof Node.Literal) || !((Node.Literal) n).value.isList())
+            return null;
+        return in.getParser().parseAll((ListValue) ((Node.Literal) n).value);
+    }
+}
@@ -0,0 +1,275 @@
+package mua;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A binary image of the global variables and the functions, written by [saveimage] and read by [loadimage].
+ * Reading an image rebuilds the values directly, nothing of the code which made them is run again.
+ * A list used in many places, e.g. the body of a function which is also a global variable,
+ * is written once and shared again when it is read. Equal words are written once, and read as one value.
+ */
+final class Image {
+    private static final int MAGIC = 0x4D554149;
+    private static final int VERSION = 1;
+
+    /* Tags of values */
+    private static final int TRUE = 0, FALSE = 1, NUMBER = 2, TEXT_NUMBER = 3, WORD = 4, ERROR = 5,
+            LIST = 6, FUNCTION = 7, REF = 8;
+
+    /** The global variables, by name. */
+    final LinkedHashMap<String, Value> vars;
+    /** The functions, by name, each as a list of parameter list and body. */
+    final LinkedHashMap<String, ListValue> funcs;
+
+    Image(LinkedHashMap<String, Value> vars, LinkedHashMap<String, ListValue> funcs) {
+        this.vars = vars;
+        this.funcs = funcs;
+    }
+
+    /* ---- write ---- */
+
+    /**
+     * @param fileName the file, replaced if it exists.
+     */
+    void write(String fileName) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            Writer w = new Writer(out);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            w.writeSize(vars.size());
+            for (Map.Entry<String, Value> e : vars.entrySet()) {
+                w.writeString(e.getKey());
+                w.writeValue(e.getValue());
+            }
+            w.writeSize(funcs.size());
+            for (Map.Entry<String, ListValue> e : funcs.entrySet()) {
+                w.writeString(e.getKey());
+                w.writeValue(e.getValue().get(0));
+                w.writeValue(e.getValue().get(1));
+            }
+        }
+    }
+
+    /** The lists and strings written so far, numbered in the order they are written. */
+    private static final class Writer {
+        private final DataOutputStream out;
+        private final IdentityHashMap<ListValue, Integer> lists = new IdentityHashMap<>();
+        private final HashMap<String, Integer> strings = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeValue(Value v) throws IOException {
+            switch (v.getType()) {
+                case Interpreter.BOOl_:
+                    out.writeByte(v == Value.TRUE ? TRUE : FALSE);
+                    break;
+                case Interpreter.NUMBER_: {
+                    String text = ((NumberValue) v).getText();
+                    out.writeByte(text != null ? TEXT_NUMBER : NUMBER);
+                    out.writeDouble(v.getNumber());
+                    if(text != null)
+                        writeString(text);
+                    break;
+                }
+                case Interpreter.LIST_:
+                case Interpreter.FUNCTION_: {
+                    ListValue list = (ListValue) v;
+                    Integer ref = lists.get(list);
+                    if(ref != null) {
+                        out.writeByte(REF);
+                        writeSize(ref);
+                        break;
+                    }
+                    lists.put(list, lists.size());
+                    out.writeByte(v.getType() == Interpreter.LIST_ ? LIST : FUNCTION);
+                    writeSize(list.size());
+                    for(int i=0; i<list.size(); i++)
+                        writeValue(list.get(i));
+                    break;
+                }
+                case Interpreter.ARRAY_:
+                case Interpreter.DICT_:
+                    throw new IOException("An array or dict cannot be saved in an image.");
+                default:
+                    out.writeByte(v.getType() == Interpreter.ERROR_ ? ERROR : WORD);
+                    writeString(v.getVal());
+            }
+        }
+
+        /**
+         * A string is written as its number, followed by its bytes the first time.
+         */
+        void writeString(String s) throws IOException {
+            Integer index = strings.get(s);
+            if(index != null) {
+                writeSize(index);
+                return;
+            }
+            writeSize(strings.size());
+            strings.put(s, strings.size());
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeSize(bytes.length);
+            out.write(bytes);
+        }
+
+        /**
+         * Write a size or index, 7 bits a byte, so small ones take one byte.
+         */
+        void writeSize(int n) throws IOException {
+            while ((n & ~0x7f) != 0) {
+                out.writeByte((n & 0x7f) | 0x80);
+                n >>>= 7;
+            }
+            out.writeByte(n);
+        }
+    }
+
+    /* ---- read ---- */
+
+    /**
+     * Map the file into memory and rebuild the values from there.
+     * @param fileName the file.
+     * @return the image.
+     * @throws IOException if the file cannot be read or is not an image.
+     */
+    static Image read(String fileName) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if(buf.getInt() != MAGIC || buf.getInt() != VERSION)
+                throw new IOException(fileName + " is not an image");
+            Reader r = new Reader(buf);
+            int n = r.readSize();
+            LinkedHashMap<String, Value> vars = new LinkedHashMap<>();
+            for(int i=0; i<n; i++) {
+                String name = r.readString();
+                vars.put(name, r.readValue());
+            }
+            n = r.readSize();
+            LinkedHashMap<String, ListValue> funcs = new LinkedHashMap<>();
+            for(int i=0; i<n; i++) {
+                String name = r.readString();
+                Value para = r.readValue();
+                Value body = r.readValue();
+                funcs.put(name, new ListValue(new Value[]{para, body}, Interpreter.FUNCTION_));
+            }
+            return new Image(vars, funcs);
+        } catch (RuntimeException | IOException e) {
+            /* A buffer underflow, a list where a word should be, or a bad tag or reference */
+            throw new IOException(fileName + " is not an image");
+        }
+    }
+
+    /** The lists and strings read so far, by number. A value is made once for each string. */
+    private static final class Reader {
+        private final ByteBuffer buf;
+        private final ArrayList<ListValue> lists = new ArrayList<>();
+        private final ArrayList<String> strings = new ArrayList<>();
+        private final ArrayList<Value> words = new ArrayList<>();
+
+        Reader(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        Value readValue() throws IOException {
+            int tag = buf.get();
+            switch (tag) {
+                case TRUE:
+                    return Value.TRUE;
+                case FALSE:
+                    return Value.FALSE;
+                case NUMBER:
+                    return NumberValue.of(buf.getDouble());
+                case TEXT_NUMBER: {
+                    double num = buf.getDouble();
+                    int index = readIndex();
+                    Value res = words.get(index);
+                    /* The same text is the same number */
+                    if(res == null || res.getType() != Interpreter.NUMBER_) {
+                        res = new NumberValue(num, strings.get(index));
+                        words.set(index, res);
+                    }
+                    return res;
+                }
+                case WORD:
+                case ERROR: {
+                    int index = readIndex();
+                    if(tag == ERROR)
+                        return new WordValue(strings.get(index), Interpreter.ERROR_);
+                    Value res = words.get(index);
+                    if(res == null || res.getType() != Interpreter.WORD_) {
+                        res = new WordValue(strings.get(index));
+                        words.set(index, res);
+                    }
+                    return res;
+                }
+                case LIST:
+                case FUNCTION: {
+                    int size = readSize();
+                    Value[] elements = new Value[size];
+                    /* The list is numbered before its elements, as it was written */
+                    int index = lists.size();
+                    lists.add(null);
+                    for(int i=0; i<size; i++)
+                        elements[i] = readValue();
+                    ListValue list = new ListValue(elements, size, tag == LIST ? Interpreter.LIST_ : Interpreter.FUNCTION_);
+                    lists.set(index, list);
+                    return list;
+                }
+                case REF: {
+                    /* A list refers to itself only in a hand-made image */
+                    ListValue res = lists.get(readSize());
+                    if(res == null)
+                        throw new IOException("bad reference");
+                    return res;
+                }
+                default:
+                    throw new IOException("bad tag " + tag);
+            }
+        }
+
+        String readString() {
+            return strings.get(readIndex());
+        }
+
+        /**
+         * @return the number of string, whose bytes are read if it is a new one.
+         */
+        private int readIndex() {
+            int index = readSize();
+            if(index == strings.size()) {
+                int length = readSize();
+                byte[] bytes = new byte[length];
+                buf.get(bytes);
+                strings.add(new String(bytes, StandardCharsets.UTF_8));
+                words.add(null);
+            }
+            return index;
+        }
+
+        int readSize() {
+            int res = 0;
+            for(int shift=0; ; shift+=7) {
+                int b = buf.get();
+                res |= (b & 0x7f) << shift;
+                if((b & 0x80) == 0)
+                    return res;
+            }
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package mua;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.*;
+import java.nio.file.NoSuchFileException;
 import java.util.*;
 
 /**
@@ -19,448 +19,642 @@ public class Interpreter {
     public static final int LIST_= 3;
     public static final int ERROR_= 4;
     public static final int FUNCTION_= 5;
+    public static final int ARRAY_= 6;
+    public static final int DICT_= 7;
 
-    /** Main Scanner */
-    private Scanner scanPerWord;
+    /** Returned by [exit] to stop the program. */
+    private static final Value EXIT = new WordValue("end");
+
+    /** The token stream being executed, swapped by [run] and [load]. */
+    private TokenStream scanPerWord;
+    /** Tokens from stdin, where [read] takes its input. */
+    private TokenStream input;
     /** Used to store variable tables.
-     * In the process of function switching, use this to realize variable table switching.
-     * The peek is current para table.
+     * Every function call pushes a new frame, the bottom is the global frame.
+     * The top is current para table. Only one thread runs an interpreter, so it needs no lock.
      */
-    private Stack <HashMap<String, Value>> paraTableStack;
+    private Frame[] frames;
+    private int depth;
+    private Frame globalFrame;
+    /** The constants from {@link #addConstant}, by id of name, which are inlined while they are never bound again. */
+    private HashMap<Integer, Value> constants;
     /** Store data about function. */
     private HashMap<String, Function> funcTable;
+    /** The ids of names, shared with the forks of this interpreter. */
+    private Symbols symbols = new Symbols();
+    /** Store builtin operations. */
+    private Primitives primitives;
+    private Parser parser;
+    /** The output of [print], flushed at the end and before [read]. */
+    private Output out;
+    /** Whether each printed line is flushed at once. */
+    private boolean lineMode;
+    /**
+     * Increased when a function is redefined with another number of parameters,
+     * so that code parsed with the old arity is parsed again.
+     */
+    private int parseEpoch;
+    /** Increased when a function is defined, so that the purity of functions is checked again. */
+    private int defineEpoch;
+    /** The results of pure functions, null if they are not kept. */
+    private Memo memo = new Memo(Memo.DEFAULT_CAPACITY);
+    /** The pending call returned from tail position, see {@link #tailCall}. */
+    private final TailCall pendingCall = new TailCall();
+    /** The bytecode engine, null if the code is run by walking the parsed tree. */
+    private VM vm;
+    /** The number of calls before a function is compiled to JVM bytecode, 0 to never compile. */
+    private int hotThreshold = FunctionCompiler.HOT_THRESHOLD;
+    /** The image read before the program runs, null if there is none. */
+    private String image;
+    /** Whether the run is profiled. */
+    private boolean profiling;
+    /** The counts and times of calls, null if the run is not profiled. */
+    private Profiler profiler;
+
+    public Interpreter() {
+    }
+
+    /**
+     * Make an interpreter which runs pure functions on another thread, see {@link ListOps}.
+     * It shares the tables of functions and builtins and the global frame, which pure code only reads,
+     * and has its own frames, parser and engine. It keeps no results of pure functions,
+     * and compiles no function: the counts of calls and the compiled code of a function are not
+     * safe to change from many threads, so it only runs the code compiled before.
+     * @return the interpreter.
+     */
+    Interpreter fork() {
+        Interpreter res = new Interpreter();
+        res.symbols = symbols;
+        res.funcTable = funcTable;
+        res.primitives = primitives;
+        res.globalFrame = globalFrame;
+        res.constants = constants;
+        res.out = out;
+        res.parseEpoch = parseEpoch;
+        res.defineEpoch = defineEpoch;
+        res.hotThreshold = 0;
+        res.memo = null;
+        res.frames = new Frame[64];
+        res.pushFrame(globalFrame);
+        res.parser = new Parser(res);
+        if(vm != null)
+            res.vm = new VM(res);
+        return res;
+    }
+
+    /**
+     * Run the code with the bytecode {@link VM} instead of walking the parsed tree.
+     */
+    public void useVM() {
+        vm = new VM(this);
+    }
+
+    /**
+     * @param n the number of calls before a function is compiled to JVM bytecode, 0 to never compile.
+     */
+    public void setHotThreshold(int n) {
+        hotThreshold = n;
+    }
+
+    int getHotThreshold() {
+        return hotThreshold;
+    }
+
+    /**
+     * @param capacity the number of results of pure functions kept, 0 to keep none.
+     */
+    public void setMemoCapacity(int capacity) {
+        memo = capacity > 0 ? new Memo(capacity) : null;
+    }
+
+    /**
+     * @return the number of calls of pure functions answered by the kept results.
+     */
+    public long getMemoHits() {
+        return memo == null ? 0 : memo.getHits();
+    }
 
-    public void run() {
-        scanPerWord = new Scanner(System.in);
-        paraTableStack = new Stack<>();
+    /**
+     * @return the number of calls of pure functions which had to run.
+     */
+    public long getMemoMisses() {
+        return memo == null ? 0 : memo.getMisses();
+    }
+
+    /**
+     * Count and time the calls of primitives and functions, and count the values made, see {@link Profiler}.
+     * No function is compiled to JVM bytecode and no result of pure function is kept, so that every call is seen.
+     */
+    public void profile() {
+        profiling = true;
+        hotThreshold = 0;
+        memo = null;
+    }
+
+    /**
+     * @return the counts and times of the last run, null if it is not profiled.
+     */
+    Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * @param fileName the image written by [saveimage], which is read before the program runs.
+     */
+    public void setImage(String fileName) {
+        image = fileName;
+    }
+
+    /**
+     * @param lineMode whether each printed line is flushed at once, for interactive use.
+     */
+    public void setLineMode(boolean lineMode) {
+        this.lineMode = lineMode;
+    }
+
+    /**
+     * Run the program from stdin.
+     * @return 0 if the program ends well, 1 after an error.
+     */
+    public int run() {
+        return run(new BufferedReader(new InputStreamReader(System.in)), System.out);
+    }
+
+    /**
+     * Run a program with streams of its own.
+     * All the state of a run is kept by the interpreter, so interpreters on different threads
+     * run their programs independently. An interpreter can run another program after this one.
+     * @param source the program, which is also read by [read].
+     * @param output where [print] writes.
+     * @return 0 if the program ends well, 1 after an error.
+     */
+    public int run(Reader source, OutputStream output) {
+        init(source, output);
+
+        // the core of interpreter.
+        if(profiler != null)
+            profiler.start();
+        try {
+            startShow();
+            if(image != null)
+                muaLoadImage(image);
+            while(scanPerWord.hasNext()) {
+                Value res = execute(parser.parseStatement(scanPerWord));
+                if(res == EXIT)
+                    break;
+            }
+            out.println("end the program.");
+            out.flush();
+            return 0;
+        } catch (MuaError e) {
+            return error(e);
+        } finally {
+            if(profiler != null)
+                profiler.stop();
+            // what is printed before a crash is still shown
+            out.flush();
+        }
+    }
+
+    /**
+     * Print the error which stops the program, to stderr if the output itself cannot be written.
+     * @param e the error.
+     * @return 1, the status of a run stopped by an error.
+     */
+    private int error(MuaError e) {
+        try {
+            out.println("[ERROR] : " + e.getMessage());
+            out.flush();
+        } catch (MuaError ignored) {
+            // the output has just failed, it is told below
+        }
+        if(out.isBroken())
+            System.err.println("[ERROR] : " + e.getMessage());
+        return 1;
+    }
+
+    /**
+     * Create the tables of interpreter, without running anything.
+     * @param source the program, which is also read by [read].
+     * @param output where [print] writes.
+     */
+    void init(Reader source, OutputStream output) {
+        input = new TokenStream(new Lexer(source));
+        out = new Output(output, lineMode);
+        scanPerWord = input;
+        frames = new Frame[64];
+        depth = 0;
         funcTable = new HashMap<String, Function>();
-        startShow();
+        primitives = new Primitives();
+        addPrimitives();
+        if(profiling) {
+            profiler = new Profiler();
+            primitives.wrapAll(Profiler::wrap);
+        }
+        parser = new Parser(this);
 
         // create the global para table.
-        HashMap<String, Value> curParaTable = new HashMap<>();
-        paraTableStack.push(curParaTable);
+        globalFrame = new Frame(null, null);
+        pushFrame(globalFrame);
         // add const variable.
+        constants = new HashMap<>();
         addConstant();
-        // the core of interpreter.
-        while(scanPerWord.hasNext()) {
-            String op = scanPerWord.next();
-            Value res = selOprand(op);
-            if(res.getVal().compareTo("end") == 0)
-                break;
-        }
-        System.out.println("end the program.");
     }
 
     /** Output some information before the program runs */
     void startShow() {
-        System.out.println(".___  ___.  __    __       ___");
-        System.out.println("|   \\/   | |  |  |  |     /   \\");
-        System.out.println("|  \\  /  | |  |  |  |    /  ^  \\");
-        System.out.println("|  |\\/|  | |  |  |  |   /  /_\\  \\");
-        System.out.println("|  |  |  | |  `--'  |  /  _____  \\");
-        System.out.println("|__|  |__|  \\______/  /__/     \\__\\");
-        System.out.println();
-        System.out.println();
-        System.out.println("The [MUA] interpreter start...");
+        out.println(".___  ___.  __    __       ___");
+        out.println("|   \\/   | |  |  |  |     /   \\");
+        out.println("|  \\  /  | |  |  |  |    /  ^  \\");
+        out.println("|  |\\/|  | |  |  |  |   /  /_\\  \\");
+        out.println("|  |  |  | |  `--'  |  /  _____  \\");
+        out.println("|__|  |__|  \\______/  /__/     \\__\\");
+        out.println("");
+        out.println("");
+        out.println("The [MUA] interpreter start...");
     }
 
     /**
      * Add constant to global para table.
      */
     void addConstant() {
-        HashMap<String, Value> curParaTable = paraTableStack.pop();
-
-        Value constant = new Value("3.14159", NUMBER_);
+        Value constant = new NumberValue(3.14159, "3.14159");
         String constantName = "pi";
-        curParaTable.put(constantName, constant);
+        globalFrame.put(symbols.intern(constantName), constant);
+        constants.put(symbols.intern(constantName), constant);
+    }
+
+    /**
+     * @param id the id of name.
+     * @return the value of constant which can be inlined into the code, null if it is not such a constant.
+     */
+    Value getConstant(int id) {
+        return constants.get(id);
+    }
 
-        paraTableStack.push(curParaTable);
+    /**
+     * The name is bound again somewhere, so the code with its value inlined is parsed again.
+     * @param id the id of name.
+     */
+    private void forgetConstant(int id) {
+        if(constants.remove(id) != null) {
+            parseEpoch++;
+            defineEpoch++;
+            if(memo != null)
+                memo.clear();
+        }
     }
 
     /**
      * Handle the case of program operation error.
+     * The error is printed by {@link #run} when the program stops.
      * @param msg throw error message
-     * @return the return value after error instruction.
+     * @return never returns, the type lets a caller write return errorThrow(...).
      */
     public Value errorThrow(String msg) {
-        System.out.println("[ERROR] : " + msg);
-        System.exit(1);
-        return new Value("[ERROR] " + msg, ERROR_);
+        throw new MuaError(msg);
+    }
+
+    Symbols getSymbols() {
+        return symbols;
+    }
+
+    Parser getParser() {
+        return parser;
+    }
+
+    Frame currentFrame() {
+        return frames[depth - 1];
+    }
+
+    void pushFrame(Frame frame) {
+        if(depth == frames.length)
+            frames = Arrays.copyOf(frames, depth * 2);
+        frames[depth++] = frame;
+    }
+
+    void popFrame() {
+        frames[--depth] = null;
+    }
+
+    int getParseEpoch() {
+        return parseEpoch;
+    }
+
+    int getDefineEpoch() {
+        return defineEpoch;
+    }
+
+    Function getFunction(String name) {
+        return funcTable.get(name);
     }
 
     /**
-     * A command selector,
-     * @param oprand the content of instruction, which type is [String].
-     * @return the return value after the instruction is executed.
+     * Run a statement with the engine in use.
+     * @param stmt the statement.
+     * @return the value of statement.
      */
-    private Value selOprand(String oprand) {
-        HashMap<String, Value> curParaTable = paraTableStack.peek();
-
-        if(oprand.charAt(0) == '"') {
-            String s = oprand.substring(1);
-            if(isNumeric(s))
-                return new Value(s, NUMBER_);
-            else
-                return new Value(s, WORD_);
-        }
-        else if(isNumeric(oprand)) {
-            return new Value(oprand, NUMBER_);
-        }
-        else if(oprand.equals("true") || oprand.equals("false")) {
-            return new Value(oprand, BOOl_);
-        }
-        else if(oprand.equals("thing")) {
-            Value paraName = selOprand(scanPerWord.next());
-            Value res = null;
+    Value execute(Node stmt) {
+        if(vm != null)
+            return vm.runStatement(stmt);
+        return stmt.eval(this);
+    }
 
-            if(curParaTable.containsKey(paraName.getVal())) {
-                res =  curParaTable.get(paraName.getVal());
-            }
-            else {
-                errorThrow("The variable ["+paraName.getVal()+"] cannot be found in table.");
-            }
+    /**
+     * Find the value of variable in current para table, then in the global one.
+     * - :name
+     * @param id the id of name of variable.
+     * @param paraName the name of variable.
+     * @return the value of variable.
+     */
+    Value lookup(int id, String paraName) {
+        Value res = currentFrame().get(id);
 
-            return res;
-        }
-        else if(oprand.charAt(0) == ':') {
-            String paraName = oprand.substring(1);
-            Value res = null;
+        if(res == null)
+            res = globalFrame.get(id);
+        if(res == null)
+            errorThrow("The variable ["+paraName+"] cannot be found in table.");
 
-            if(curParaTable.containsKey(paraName)) {
-                res = curParaTable.get(paraName);
-            }
-            else {
-                errorThrow("The variable ["+paraName+"] cannot be found in table.");
-            }
+        return res;
+    }
 
-            return res;
-        }
-        else if(oprand.charAt(0) == '[') {
-            return readList(oprand);
-        }
-        else if(oprand.equals("read")) {
-            String tmp = scanPerWord.next();
-            return new Value(tmp, WORD_);
-        }
-        else if(oprand.equals("add")) {
-            return muaCalculate(1);
-        }
-        else if(oprand.equals("sub")) {
-            return muaCalculate(2);
-        }
-        else if(oprand.equals("mul")) {
-            return muaCalculate(3);
-        }
-        else if(oprand.equals("div")) {
-            return muaCalculate(4);
-        }
-        else if(oprand.equals("mod")) {
-            return muaCalculate(5);
-        }
-        else if(oprand.equals("make")) { /* - make <name> <value> */
-            return muaMake();
-        }
-        else if(oprand.equals("print")) { /* - print <value> */
-            Value para = selOprand(scanPerWord.next());
+    /**
+     * @param name the name of builtin operation.
+     * @return the operation, null if there is no such operation.
+     */
+    Primitive getPrimitive(String name) {
+        return primitives.get(name);
+    }
 
-            if(para.getType() == LIST_) {
-                String val = para.getVal();
-                val = val.substring(1, val.length()-1).trim();
-                System.out.println(val);
-            }
+    /**
+     * Add builtin operations to the primitive table.
+     */
+    void addPrimitives() {
+        primitives.register("thing", 1, (in, args) -> in.lookup(symbols.of(args[0]), args[0].getVal()));
+        primitives.register("read", 0, (in, args) -> {
+            /* The prompt printed before must be seen before waiting for input */
+            in.out.flush();
+            return new WordValue(in.input.next());
+        });
+        primitives.register("add", 2, (in, args) -> in.muaCalculate(1, args[0], args[1]));
+        primitives.register("sub", 2, (in, args) -> in.muaCalculate(2, args[0], args[1]));
+        primitives.register("mul", 2, (in, args) -> in.muaCalculate(3, args[0], args[1]));
+        primitives.register("div", 2, (in, args) -> in.muaCalculate(4, args[0], args[1]));
+        primitives.register("mod", 2, (in, args) -> in.muaCalculate(5, args[0], args[1]));
+        /* - make <name> <value> */
+        primitives.register("make", 2, (in, args) -> in.muaMake(args[0], args[1]));
+        /* - print <value> */
+        primitives.register("print", 1, (in, args) -> {
+            Value para = args[0];
+
+            if(para.getType() == LIST_)
+                in.out.printContent((ListValue) para);
             else
-                System.out.println(para.getVal());
+                in.out.println(para);
 
             return para;
-        }
-        else if(oprand.equals("erase")) {
-            String tmp = scanPerWord.next();
-            Value res = curParaTable.get(tmp.substring(1));
-            res.setVal("");
-            curParaTable.put(tmp.substring(1), res);
+        });
+        primitives.register("erase", 1, (in, args) -> {
+            String name = args[0].getVal();
+            int id = symbols.of(args[0]);
+            in.forgetConstant(id);
+            Value res = in.currentFrame().remove(id);
+            if(res == null)
+                in.errorThrow("The variable ["+name+"] cannot be found in table.");
             return res;
-        }
-        else if(oprand.equals("random")) { /* - random <number> */
-            int num = Integer.parseInt(scanPerWord.next());
-            return new Value(String.valueOf(Math.random()*num), NUMBER_);
-        }
-        else if(oprand.equals("int")) { /* - int <number> */
-            int res = Integer.parseInt(scanPerWord.next());
-            return new Value(String.valueOf(res), NUMBER_);
-        }
-        else if(oprand.equals("sqrt")) { /* - sqrt <number> */
-            double f = Double.parseDouble(scanPerWord.next());
-            f = Math.sqrt(f);
-            return new Value(String.valueOf(f), NUMBER_);
-        }
-        else if(oprand.equals("load")) { /* - load <word> */
-            String fileName = scanPerWord.next();
-            return muaLoad(fileName);
-        }
-        else if(oprand.equals("isname")) {
-            Value name = selOprand(scanPerWord.next());
+        });
+        /* - random <number> */
+        primitives.register("random", 1, (in, args) -> {
+            int num = (int) in.number(args[0], "random");
+            return NumberValue.of(Math.random()*num);
+        });
+        /* - int <number> */
+        primitives.register("int", 1, (in, args) -> {
+            double num = in.number(args[0], "int");
+            /* Past MAX_EXACT a double is not exact as a long, the check also fails for NaN */
+            if(!(Math.abs(num) <= NumberValue.MAX_EXACT))
+                in.errorThrow("The NUMBER of [int] is out of range.");
+            return NumberValue.integer((long) num);
+        });
+        /* - sqrt <number> */
+        primitives.register("sqrt", 1, (in, args) -> NumberValue.of(Math.sqrt(in.number(args[0], "sqrt"))));
+        /* - load <word> */
+        primitives.register("load", 1, (in, args) -> in.muaLoad(args[0].getVal()));
+        /* - saveimage <word> */
+        primitives.register("saveimage", 1, (in, args) -> in.muaSaveImage(args[0]));
+        /* - loadimage <word> */
+        primitives.register("loadimage", 1, (in, args) -> in.muaLoadImage(args[0].getVal()));
+        primitives.register("isname", 1, (in, args) -> {
+            int id = symbols.of(args[0]);
 
             // todo check function name
-            Stack <HashMap<String, Value>> tmpStack = paraTableStack;
-            while (!tmpStack.isEmpty()) {
-                HashMap <String, Value> tmpParaTable = tmpStack.peek();
-                if (tmpParaTable.containsKey(name.getVal())) {
-                    return new Value("true", BOOl_);
-                }
-            }
-            return new Value("false", BOOl_);
-        }
-        else if(oprand.equals("isnumber")) {
-            return checkType(NUMBER_);
-        }
-        else if(oprand.equals("isbool")) {
-            return checkType(BOOl_);
-        }
-        else if(oprand.equals("isword")) {
-            return checkType(WORD_);
-        }
-        else if(oprand.equals("islist")) {
-            return checkType(LIST_);
-        }
-        else if(oprand.equals("isempty")) {
-            Value para = selOprand(scanPerWord.next());
+            return Value.bool(in.currentFrame().contains(id) || in.globalFrame.contains(id));
+        });
+        primitives.register("isnumber", 1, (in, args) -> in.checkType(NUMBER_, args[0]));
+        primitives.register("isbool", 1, (in, args) -> in.checkType(BOOl_, args[0]));
+        primitives.register("isword", 1, (in, args) -> in.checkType(WORD_, args[0]));
+        primitives.register("islist", 1, (in, args) -> in.checkType(LIST_, args[0]));
+        primitives.register("isarray", 1, (in, args) -> in.checkType(ARRAY_, args[0]));
+        primitives.register("isdict", 1, (in, args) -> in.checkType(DICT_, args[0]));
+        primitives.register("isempty", 1, (in, args) -> {
+            Value para = args[0];
             if(para.getType() == WORD_) {
-                return emptyCheck(para.getVal().trim());
+                return Value.bool(((WordValue) para).isBlank());
             }
             else if(para.getType() == LIST_) {
-                String val = para.getVal();
-                val = val.substring(1, val.length()-1);
-                return emptyCheck(val.trim());
+                return Value.bool(((ListValue) para).isEmpty());
             }
-            else {
-                errorThrow("Type of [isempty] should be [WORD] or [LIST].");
-            }
-        }
-        else if(oprand.equals("and")) {
-            return muaLogic(1);
-        }
-        else if(oprand.equals("or")) {
-            return muaLogic(2);
-        }
-        else if(oprand.equals("not")) {
-            Value para = selOprand(scanPerWord.next());
-
-            if(para.getType() == BOOl_) {
-                if(para.getVal().compareTo("true") == 0) {
-                    return new Value("false", BOOl_);
-                }
-                else {
-                    return new Value("true", BOOl_);
-                }
-            }
-            else {
-                errorThrow("Logic operation type is not BOOL");
-            }
-        }
-        else if(oprand.equals("run")) {
-            Value list = selOprand(scanPerWord.next());
-            return runList(list.getVal());
-        }
-        else if(oprand.equals("if")) {
-            Value opFlag = selOprand(scanPerWord.next());
-
-            if(opFlag.getType() != BOOl_) {
-                errorThrow("The type after IF is not a BOOL");
-            }
-
-            Value list1 = selOprand(scanPerWord.next());
-            Value list2 = selOprand(scanPerWord.next());
-            if(opFlag.getVal().compareTo("true") == 0) {
-                return runList(list1.getVal());
-            }
-            else {
-                return runList(list2.getVal());
-            }
-        }
-        else if(oprand.equals("eq")) {
-            return valCompare(1);
-        }
-        else if(oprand.equals("gt")) {
-            return valCompare(2);
-        }
-        else if(oprand.equals("lt")) {
-            return valCompare(3);
-        }
-        else if(oprand.equals("first")) {
-            return getElement(1);
-        }
-        else if(oprand.equals("last")) {
-            return getElement(2);
-        }
-        else if(oprand.equals("butfirst")) {
-            return getElement(3);
-        }
-        else if(oprand.equals("butlast")) {
-            return getElement(4);
-        }
-        else if(oprand.equals("word")) {
-            Value para1 = selOprand(scanPerWord.next());
+            return in.errorThrow("Type of [isempty] should be [WORD] or [LIST].");
+        });
+        primitives.register("and", 2, (in, args) -> in.muaLogic(1, args[0], args[1]));
+        primitives.register("or", 2, (in, args) -> in.muaLogic(2, args[0], args[1]));
+        primitives.register("not", 1, (in, args) -> {
+            if(args[0].getType() != BOOl_)
+                return in.errorThrow("Logic operation type is not BOOL");
+            return Value.bool(args[0] == Value.FALSE);
+        });
+        primitives.register("run", 1, (in, args) -> in.runList(args[0], false),
+                (in, args) -> in.runList(args[0], true));
+        primitives.register("if", 3, (in, args) -> in.muaIf(args, false),
+                (in, args) -> in.muaIf(args, true));
+        primitives.register("eq", 2, (in, args) -> in.valCompare(1, args[0], args[1]));
+        primitives.register("gt", 2, (in, args) -> in.valCompare(2, args[0], args[1]));
+        primitives.register("lt", 2, (in, args) -> in.valCompare(3, args[0], args[1]));
+        primitives.register("first", 1, (in, args) -> in.getElement(1, args[0]));
+        primitives.register("last", 1, (in, args) -> in.getElement(2, args[0]));
+        primitives.register("butfirst", 1, (in, args) -> in.getElement(3, args[0]));
+        primitives.register("butlast", 1, (in, args) -> in.getElement(4, args[0]));
+        primitives.register("word", 2, (in, args) -> {
+            Value para1 = args[0];
             if(para1.getType() != WORD_)
-                errorThrow("The type of first para of [word] should be [WORD].");
-            Value para2 = selOprand(scanPerWord.next());
+                in.errorThrow("The type of first para of [word] should be [WORD].");
+            Value para2 = args[1];
             if(para2.getType() != WORD_ && para2.getType() != BOOl_ && para2.getType() != NUMBER_)
-                errorThrow("The type of second para of [word] should be [WORD | NUMBER | BOOL].");
-
-            return new Value(para1.getVal()+para2.getVal(), WORD_);
-        }
-        else if(oprand.equals("sentence")) {
-            Value para1 = selOprand(scanPerWord.next());
-            Value para2 = selOprand(scanPerWord.next());
-            String s1 = para1.getVal();
-            String s2 = para2.getVal();
-
-            if(para1.getType() == LIST_)
-                s1 = s1.substring(1, s1.length()-1);
+                in.errorThrow("The type of second para of [word] should be [WORD | NUMBER | BOOL].");
+
+            return ((WordValue) para1).concat(para2);
+        });
+        primitives.register("sentence", 2, (in, args) -> {
+            Value para1 = args[0];
+            Value para2 = args[1];
+            ListValue res = para1.getType() == LIST_ ? (ListValue) para1 : ListValue.EMPTY.append(para1);
             if(para2.getType() == LIST_)
-                s2 = s2.substring(1, s2.length()-1);
-
-            return new Value("["+s1+s2+"]", LIST_);
-        }
-        else if(oprand.equals("join")) {
-            Value para1 = selOprand(scanPerWord.next());
-            if(para1.getType() != LIST_)
-                errorThrow("The first para of [join] should be a [LIST].");
-            Value para2 = selOprand(scanPerWord.next());
-            String s1 = para1.getVal().substring(1, para1.getVal().length()-1);
-            String s2 = para2.getVal();
-
-            return new Value("["+s1+s2+"]", LIST_);
-        }
-        else if(oprand.equals("list")) {
-            Value para1 = selOprand(scanPerWord.next());
-            Value para2 = selOprand(scanPerWord.next());
-            String s1 = para1.getVal();
-            String s2 = para2.getVal();
-            return new Value("["+s1+s2+"]", LIST_);
-        }
-        else if(oprand.equals("exit")) {
-            return new Value("end", WORD_);
-        }
-        else {
-            if(curParaTable.containsKey(oprand)) {
-                Value tmp = curParaTable.get(oprand);
-                if(tmp.getType() == FUNCTION_)
-                    return runFunc(oprand);
-            }
-
-            errorThrow("Unknown instruction: " + oprand);
-        }
-        return null;
+                return res.concat((ListValue) para2);
+            return res.append(para2);
+        });
+        primitives.register("join", 2, (in, args) -> {
+            if(args[0].getType() != LIST_)
+                in.errorThrow("The first para of [join] should be a [LIST].");
+            return ((ListValue) args[0]).append(args[1]);
+        });
+        primitives.register("list", 2, (in, args) -> new ListValue(new Value[]{args[0], args[1]}));
+        primitives.register("exit", 0, (in, args) -> EXIT);
+        /* - array <number> */
+        primitives.register("array", 1, (in, args) -> new ArrayValue(in.index(args[0], 0, ArrayValue.MAX_SIZE, "array")));
+        /* - item <number> <array> */
+        primitives.register("item", 2, (in, args) -> {
+            ArrayValue array = in.array(args[1], "item");
+            return array.get(in.index(args[0], 1, array.size(), "item") - 1);
+        });
+        /* - setitem <number> <array> <value>, the index after the last element puts it at the end */
+        primitives.register("setitem", 3, (in, args) -> {
+            ArrayValue array = in.array(args[1], "setitem");
+            array.set(in.index(args[0], 1, Math.min(array.size() + 1, ArrayValue.MAX_SIZE), "setitem") - 1, args[2]);
+            return args[2];
+        });
+        /* - dict */
+        primitives.register("dict", 0, (in, args) -> new DictValue());
+        /* - get <dict> <key> */
+        primitives.register("get", 2, (in, args) -> {
+            Value res = in.dict(args[0], args[1], "get").get(args[1]);
+            return res != null ? res : in.errorThrow("There is no key " + args[1].getVal() + " in the dict.");
+        });
+        /* - put <dict> <key> <value> */
+        primitives.register("put", 3, (in, args) -> {
+            in.dict(args[0], args[1], "put").put(args[1], args[2]);
+            return args[2];
+        });
+        /* - haskey <dict> <key> */
+        primitives.register("haskey", 2, (in, args) -> Value.bool(in.dict(args[0], args[1], "haskey").get(args[1]) != null));
+        /* - map <function> <list> */
+        primitives.register("map", 2, (in, args) -> ListOps.map(in, args[0], args[1]));
+        /* - filter <function> <list> */
+        primitives.register("filter", 2, (in, args) -> ListOps.filter(in, args[0], args[1]));
+        /* - reduce <function> <value> <list> */
+        primitives.register("reduce", 3, (in, args) -> ListOps.reduce(in, args[0], args[1], args[2]));
     }
 
     /**
      * The function to realize [make].
      * - make <name> <value>
+     * @param paraName the name.
+     * @param para the value.
      * @return the return value which is bound to the [name].
      */
-    Value muaMake() {
-        Value paraName = selOprand(scanPerWord.next());
-        Value para = selOprand(scanPerWord.next());
+    Value muaMake(Value paraName, Value para) {
 
         if(para.getType() == FUNCTION_) {
 //            funcNameTable.add(paraName.getVal());
             analysisFunc(paraName.getVal(), para);
         }
-        HashMap<String, Value> curParaTable = paraTableStack.pop();
-        curParaTable.put(paraName.getVal(), para);
-        paraTableStack.push(curParaTable);
+        int id = symbols.of(paraName);
+        forgetConstant(id);
+        currentFrame().put(id, para);
 
         return para;
     }
 
     /**
-     * Read list body.
-     * @param oprand oprand.
-     * @return the String of list body.
+     * - if <bool> <list1> <list2>
+     * @param args the condition and two lists.
+     * @param tail whether [if] is in tail position of a function body.
+     * @return the value of list which is run.
      */
-    Value readList(String oprand) {
-        StringBuilder body = new StringBuilder(oprand);
+    Value muaIf(Value[] args, boolean tail) {
+        Value opFlag = args[0];
 
-        /*
-         * Use loop to get the content of list.
-         * If the number of '[' does not equal to ']', it means we need scan more.
-         */
-        int cnt = 0;
-        while (true) {
-            for(int i=0; i<body.length(); i++) {
-                if(body.charAt(i) == '[')
-                    cnt++;
-                if(body.charAt(i) == ']')
-                    cnt--;
-            }
-
-            if(cnt == 0)
-                break;
-            else {
-                // if there is not enough ']' to match '[', it means there is still input.
-                String tmp = scanPerWord.next();
-                body.append(" ").append(tmp);
-            }
-            cnt = 0;
-        }
-
-        /*
-         * Traverse the body and check if the body is composed of two lists.
-         * If it is, it is a function.
-         * Otherwise, it is a normal list.
-         */
-        int numOfList = 0;
-        cnt = 0;
-        for(int i=1; i<body.length()-1; i++) {
-            if(body.charAt(i) == '[')
-                cnt++;
-            if(body.charAt(i) == ']') {
-                cnt--;
-                if(cnt == 0)
-                    numOfList++;
-            }
+        if(opFlag.getType() != BOOl_) {
+            errorThrow("The type after IF is not a BOOL");
         }
-        String tmp = body.substring(1, body.length()-1).trim();
-
-        boolean funcFlag;
-        if(tmp.compareTo("") == 0)
-            funcFlag = false;
-        else
-            funcFlag = tmp.charAt(0) == '[' && tmp.charAt(tmp.length() - 1) == ']';
 
-        if(numOfList == 2 && funcFlag) {
-            return new Value(body.toString(), FUNCTION_);
+        if(opFlag == Value.TRUE) {
+            return runList(args[1], tail);
+        }
+        else {
+            return runList(args[2], tail);
         }
-        else
-            return new Value(body.toString(), LIST_);
+    }
+
+    Value runList(Value list) {
+        return runList(list, false);
     }
 
     /**
      * to run the content of list.
      * - run <list>
-     * @param list the content of list which type in Java is String.
-     * @return <value>
+     * @param list the list, whose code is parsed only once.
+     * @param tail whether the list is in tail position of a function body.
+     * @return <value>, or a {@link TailCall} if tail is true.
      */
-    Value runList(String list) {
-        if(list.charAt(0) != '[')
+    Value runList(Value list, boolean tail) {
+        if(!list.isList())
             errorThrow("This is not a LIST!");
 
-        Scanner mainScanner = scanPerWord;
-        scanPerWord = new Scanner(list.substring(1,list.length()-1));
-
-        Value res = null;
+        if(vm != null)
+            return vm.runList((ListValue) list, tail);
+        return runTree((ListValue) list, tail);
+    }
 
-        while (scanPerWord.hasNext()) {
-            String op = scanPerWord.next();
-            if(op.equals("return")) {
-                res = selOprand(scanPerWord.next());
-                break;
-            }
-            res = selOprand(op);
+    /**
+     * Run the list by walking its parsed tree.
+     * @param body the list.
+     * @param tail whether the list is in tail position of a function body.
+     * @return <value>, or a {@link TailCall} if tail is true.
+     */
+    Value runTree(ListValue body, boolean tail) {
+        Block code = body.getCode();
+        if(code == null || code.getEpoch() != parseEpoch) {
+            code = new Block(body, parseEpoch);
+            body.setCode(code);
         }
-        scanPerWord = mainScanner;
+        return code.run(this, tail);
+    }
 
-        return res;
+    /**
+     * @param para the index, counted from 1 like Logo, or the size of [array].
+     * @param min the least index allowed.
+     * @param max the greatest index allowed.
+     * @param op the name of operation, for the error.
+     * @return the index.
+     */
+    int index(Value para, int min, int max, String op) {
+        String what = op.equals("array") ? "size" : "index";
+        if(!(para instanceof NumberValue) || !((NumberValue) para).isWhole())
+            errorThrow("The " + what + " of [" + op + "] should be a whole NUMBER.");
+        long res = ((NumberValue) para).longValue();
+        if(res < min || res > max)
+            errorThrow("The " + what + " of [" + op + "] is out of range, it should be in [" + min + ", " + max + "].");
+        return (int) res;
+    }
+
+    ArrayValue array(Value para, String op) {
+        if(para.getType() != ARRAY_)
+            errorThrow("The type of [" + op + "] should be ARRAY.");
+        return (ArrayValue) para;
+    }
+
+    /**
+     * @param para the dict.
+     * @param key the key, which should not be a list, an array or a dict.
+     * @param op the name of operation, for the error.
+     * @return the dict.
+     */
+    DictValue dict(Value para, Value key, String op) {
+        if(para.getType() != DICT_)
+            errorThrow("The type of [" + op + "] should be DICT.");
+        if(key.getType() != NUMBER_ && key.getType() != WORD_ && key.getType() != BOOl_)
+            errorThrow("The key of [" + op + "] should be NUMBER, WORD or BOOL.");
+        return (DictValue) para;
     }
 
     /**
@@ -468,40 +662,58 @@ public class Interpreter {
      * - add/sub/mul/div/mod <number> <number>
      * @param state to distinguish the type of calculate.
      *              1 -> add    2 -> sub    3 -> mul    4 -> div    5 -> mod
+     * @param para1 the first number.
+     * @param para2 the second number.
      * @return the result after calculating.
      */
-    Value muaCalculate(int state) {
-        Value para1 = selOprand(scanPerWord.next());
-        Value para2 = selOprand(scanPerWord.next());
+    /**
+     * @param para the argument.
+     * @param op the name of operation, for the error.
+     * @return the number, the program stops with an error if it is not a NUMBER.
+     */
+    double number(Value para, String op) {
+        if(para.getType() != NUMBER_)
+            errorThrow("The type of [" + op + "] should be NUMBER.");
+        return para.getNumber();
+    }
+
+    Value muaCalculate(int state, Value para1, Value para2) {
 
         /* add type check 22/01/04 */
         if(para1.getType() != NUMBER_ || para2.getType() != NUMBER_) {
             errorThrow("Arithmetic operation type is not a NUMBER.");
         }
 
-        double num1 = Double.parseDouble(para1.getVal());
-        double num2 = Double.parseDouble(para2.getVal());
+        if(para1 instanceof NumberValue && para2 instanceof NumberValue
+                && ((NumberValue) para1).isWhole() && ((NumberValue) para2).isWhole()) {
+            Value res = wholeCalculate(state, ((NumberValue) para1).longValue(), ((NumberValue) para2).longValue());
+            if(res != null)
+                return res;
+        }
+
+        double num1 = para1.getNumber();
+        double num2 = para2.getNumber();
 
         if(state == 1) {
-            return new Value(String.valueOf(num1 + num2), NUMBER_);
+            return NumberValue.of(num1 + num2);
         }
         else if(state == 2) {
-            return new Value(String.valueOf(num1 - num2), NUMBER_);
+            return NumberValue.of(num1 - num2);
         }
         else if(state == 3) {
-            return new Value(String.valueOf(num1 * num2), NUMBER_);
+            return NumberValue.of(num1 * num2);
         }
         else if(state == 4) {
             if(num2 == 0) {
                 errorThrow("The division cannot be 0.");
             }
-            return new Value(String.valueOf(num1 / num2), NUMBER_);
+            return NumberValue.of(num1 / num2);
         }
         else if(state == 5) {
             if(num2 == 0) {
                 errorThrow("The division connot be 0.");
             }
-            return new Value(String.valueOf(num1 % num2), NUMBER_);
+            return NumberValue.of(num1 % num2);
         }
         else {
             errorThrow("There is no such calculate option.");
@@ -517,16 +729,20 @@ public class Interpreter {
     public boolean isNumeric(String s) {
         int len = s.length();
         int i = 0;
+        int digits = 0, dots = 0;
 
-        if(s.charAt(i) == '0' || s.charAt(i) =='-') {
+        if(len > 0 && s.charAt(i) =='-') {
             i++;
         }
         for(; i < len; ++i) {
-            if (!Character.isDigit(s.charAt(i)) && s.charAt(i) != '.') {
+            if(Character.isDigit(s.charAt(i)))
+                digits++;
+            else if(s.charAt(i) == '.')
+                dots++;
+            else
                 return false;
-            }
         }
-        return true;
+        return digits > 0 && dots <= 1;
     }
 
     /**
@@ -535,70 +751,150 @@ public class Interpreter {
      * @return always return true.
      */
     Value muaLoad(String fileName) {
-        File file = new File(fileName);
-
-        Scanner mainScanner = scanPerWord;
+        Lexer file;
         try {
-            scanPerWord = new Scanner(file);
-        } catch (FileNotFoundException e) {
+            file = Lexer.open(fileName);
+        } catch (NoSuchFileException e) {
+            return errorThrow(fileName + " (No such file or directory)");
+        } catch (IOException e) {
             return errorThrow(e.getMessage());
         }
 
+        Object event = Events.beginLoad();
+        /* Each statement is run as soon as it is read, the file is never held as text */
+        TokenStream mainScanner = scanPerWord;
+        scanPerWord = new TokenStream(file);
+
         Value res = null;
-        while (scanPerWord.hasNext()) {
-            res = selOprand(scanPerWord.next());
+        try {
+            while (scanPerWord.hasNext()) {
+                res = execute(parser.parseStatement(scanPerWord));
+            }
+        } finally {
+            scanPerWord = mainScanner;
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+            // a load stopped by an error is recorded too
+            Events.endLoad(event, fileName);
         }
-        scanPerWord = mainScanner;
         return res;
     }
 
+    /**
+     * Write the global variables and the functions into an image.
+     * - saveimage <word>
+     * @param fileName the name of file.
+     * @return the name of file.
+     */
+    Value muaSaveImage(Value fileName) {
+        LinkedHashMap<String, Value> vars = new LinkedHashMap<>();
+        Value[] globals = globalFrame.globals();
+        for(int id=0; id<globals.length; id++) {
+            /* The constants are made by every interpreter */
+            if(globals[id] != null && globals[id] != constants.get(id))
+                vars.put(symbols.name(id), globals[id]);
+        }
+        LinkedHashMap<String, ListValue> funcs = new LinkedHashMap<>();
+        for (Function F : funcTable.values())
+            funcs.put(F.getFuncName(), (ListValue) F.getSelf());
+        try {
+            new Image(vars, funcs).write(fileName.getVal());
+        } catch (IOException e) {
+            return errorThrow(e.getMessage());
+        }
+        return fileName;
+    }
+
+    /**
+     * Bind the global variables and define the functions kept in an image, as [load] of the code making them.
+     * - loadimage <word>
+     * @param fileName the name of file.
+     * @return always return true.
+     */
+    Value muaLoadImage(String fileName) {
+        Image res;
+        try {
+            res = Image.read(fileName);
+        } catch (NoSuchFileException e) {
+            return errorThrow(fileName + " (No such file or directory)");
+        } catch (IOException e) {
+            return errorThrow(e.getMessage());
+        }
+        /* Checked before anything is bound, so an invalid image changes nothing */
+        for (Map.Entry<String, Value> e : res.vars.entrySet()) {
+            if(e.getValue() == null)
+                errorThrow(fileName + " is not a valid image: the variable " + e.getKey() + " has no value.");
+        }
+        for (Map.Entry<String, ListValue> e : res.funcs.entrySet()) {
+            if(!isFunction(e.getValue()))
+                errorThrow(fileName + " is not a valid image: the function " + e.getKey()
+                        + " is not a list of parameters and a body.");
+        }
+        for (Map.Entry<String, Value> e : res.vars.entrySet()) {
+            int id = symbols.intern(e.getKey());
+            forgetConstant(id);
+            globalFrame.put(id, e.getValue());
+        }
+        for (Map.Entry<String, ListValue> e : res.funcs.entrySet()) {
+            ListValue f = e.getValue();
+            funcTable.put(e.getKey(), newFunction(e.getKey(), (ListValue) f.get(0), (ListValue) f.get(1)));
+        }
+        /* Once for all the functions, instead of once for each as [make] does */
+        parseEpoch++;
+        defineEpoch++;
+        if(memo != null)
+            memo.clear();
+        return Value.TRUE;
+    }
+
+    /**
+     * @param f a function read from an image.
+     * @return whether it is [[parameters] [body]], where the parameters are words.
+     */
+    private static boolean isFunction(ListValue f) {
+        if(f.size() != 2 || f.get(0) == null || !f.get(0).isList() || f.get(1) == null || !f.get(1).isList())
+            return false;
+        ListValue paraList = (ListValue) f.get(0);
+        for(int i=0; i<paraList.size(); i++) {
+            if(paraList.get(i) == null || paraList.get(i).isList())
+                return false;
+        }
+        return true;
+    }
+
     /**
      * Used to check whether [Value] is the selected type.
      * - isxxxx <value>
      * @param wait2Check the type we hope to be.
+     * @param para the value to check.
      * @return true or false.
      */
-    Value checkType(int wait2Check) {
-        Value para = selOprand(scanPerWord.next());
+    Value checkType(int wait2Check, Value para) {
 
-        if(para.getType() == wait2Check) {
-            return new Value("true", BOOl_);
-        }
-        else {
-            return new Value("false", BOOl_);
-        }
+        return Value.bool(para.getType() == wait2Check);
     }
 
     /**
      * Logic calculate for two values.
      * - and/or <value> <value>
      * @param type 1 -> and     2 -> or
+     * @param para1 the first bool.
+     * @param para2 the second bool.
      * @return true or false.
      */
-    Value muaLogic(int type) {
-        Value para1 = selOprand(scanPerWord.next());
-        Value para2 = selOprand(scanPerWord.next());
+    Value muaLogic(int type, Value para1, Value para2) {
 
         if(para1.getType() != BOOl_ || para2.getType() != BOOl_) {
             errorThrow("Logic operation type is not BOOL");
         }
 
         if(type == 1) {
-            if(para1.getVal().compareTo("true") == 0
-                    && para2.getVal().compareTo("true") == 0) {
-                return new Value("true", BOOl_);
-            }
-            else {
-                return new Value("false", BOOl_);
-            }
+            return Value.bool(para1 == Value.TRUE && para2 == Value.TRUE);
         }
         else if(type == 2) {
-            if(para1.getVal().compareTo("true") == 0
-                    || para2.getVal().compareTo("true") == 0) {
-                return new Value("true", BOOl_);
-            }
-            else
-                return new Value("false", BOOl_);
+            return Value.bool(para1 == Value.TRUE || para2 == Value.TRUE);
         }
         else
             errorThrow("???");
@@ -606,141 +902,125 @@ public class Interpreter {
     }
 
     /**
-     * value compare
-     * @param type 1 -> eq      2 -> gt     3 -> lt
-     * @return  true or false
+     * Calculate on two whole numbers as longs, where the result is the same as on doubles.
+     * @param state see {@link #muaCalculate}.
+     * @return the result, or null if it is not a whole number within {@link NumberValue#MAX_EXACT},
+     *         or it is -0.0 on doubles. Then the result is calculated on doubles.
      */
-    Value valCompare(int type) {
-        Value para1 = selOprand(scanPerWord.next());
-        Value para2 = selOprand(scanPerWord.next());
-
-        int res = para1.getVal().compareTo(para2.getVal());
-        if(type == 1 && res == 0) {
-            return new Value("true", BOOl_);
+    private Value wholeCalculate(int state, long num1, long num2) {
+        long res;
+        if(state == 1)
+            res = num1 + num2;
+        else if(state == 2)
+            res = num1 - num2;
+        else if(state == 3) {
+            if(Math.abs(num1) >= 1L << 31 || Math.abs(num2) >= 1L << 31)
+                return null;
+            res = num1 * num2;
+            if(res == 0 && (num1 < 0 || num2 < 0))
+                return null;
         }
-        if(type == 2 && res > 0) {
-            return new Value("true", BOOl_);
+        else if(state == 4) {
+            if(num2 == 0 || num1 % num2 != 0 || (num1 == 0 && num2 < 0))
+                return null;
+            res = num1 / num2;
         }
-        if(type == 3 && res < 0) {
-            return new Value("true", BOOl_);
+        else if(state == 5) {
+            if(num2 == 0)
+                return null;
+            res = num1 % num2;
+            if(res == 0 && num1 < 0)
+                return null;
         }
-
-        return new Value("false", BOOl_);
+        else
+            return null;
+        if(Math.abs(res) > NumberValue.MAX_EXACT)
+            return null;
+        return NumberValue.of(res);
     }
 
     /**
-     * to check the string is empty or not.
-     * @param s the string wait to check
-     * @return true or false.
+     * value compare
+     * @param type 1 -> eq      2 -> gt     3 -> lt
+     * @param para1 the first value.
+     * @param para2 the second value.
+     * @return  true or false
      */
-    Value emptyCheck(String s) {
-        if(s.compareTo("") == 0)
-            return new Value("true", BOOl_);
+    Value valCompare(int type, Value para1, Value para2) {
+
+        int res;
+        if(para1 instanceof NumberValue && para2 instanceof NumberValue
+                && ((NumberValue) para1).isWhole() && ((NumberValue) para2).isWhole())
+            res = Long.compare(((NumberValue) para1).longValue(), ((NumberValue) para2).longValue());
+        else if(para1.getType() == NUMBER_ && para2.getType() == NUMBER_)
+            res = Double.compare(para1.getNumber(), para2.getNumber());
+        else if(para1 instanceof WordValue && para2 instanceof WordValue)
+            res = ((WordValue) para1).compareTo((WordValue) para2);
         else
-            return new Value("false", BOOl_);
-    }
+            res = para1.getVal().compareTo(para2.getVal());
 
-    /**
-     * Separate the elements in the list into a stack.
-     * @param s the content of list.
-     * @return the stack filled with elements.
-     */
-    Stack<String> splitByBlank(String s) {
-        s = s.trim();
-        Stack<String> str = new Stack<String>();
-        int cnt=0;
-        StringBuilder unit = new StringBuilder();
-        for(int i=0; i<s.length(); i++) {
-            if(s.charAt(i) == ' ' && cnt == 0) {
-                unit = new StringBuilder(unit.toString().trim());
-                str.push(unit.toString());
-                unit = new StringBuilder();
-                continue;
-            }
-            if(s.charAt(i) == '[')
-                cnt++;
-            else if(s.charAt(i) == ']')
-                cnt--;
-            unit.append(s.charAt(i));
+        if(type == 1) {
+            return Value.bool(res == 0);
         }
-        str.push(unit.toString());
-
-        return str;
-    }
-
-    /**
-     * reverse the stack
-     * @param s stack
-     * @return the stack after reversing
-     */
-    Stack<String> reverseStack(Stack<String> s) {
-        Stack<String> res = new Stack<String>();
-        int size = s.size();
-        for(int i=0; i<size; i++) {
-            String tmp = s.pop();
-            res.push(tmp);
+        if(type == 2) {
+            return Value.bool(res > 0);
         }
-        return res;
+        return Value.bool(res < 0);
     }
 
     /**
      * return the element in the list.
      * @param type 1 -> first       2 -> last
+     * @param para the list or word.
      * @return the value of element
      */
-    Value getElement(int type) {
-        Value para = selOprand(scanPerWord.next());
+    Value getElement(int type, Value para) {
         assert para != null;
+        Object event = Events.beginList();
+        Value res = element(type, para);
+        if(event != null)
+            Events.endList(event, type == 1 ? "first" : type == 2 ? "last" : type == 3 ? "butfirst" : "butlast",
+                    para.isList() ? ((ListValue) para).size() : para.getVal().length());
+        return res;
+    }
+
+    private Value element(int type, Value para) {
         if(para.getType() == WORD_) {
-            String res = "";
+            WordValue s = (WordValue) para;
+            int length = s.length();
+            if(length == 0)
+                return errorThrow("The word is empty.");
+
+            /* Slices of the same chars, no copy */
             if(type == 1)
-                res += para.getVal().charAt(0);
+                return s.sub(0, 1);
             else if(type == 2) {
-                res += para.getVal().charAt(para.getVal().length() - 1);
+                return s.sub(length - 1, length);
             }
             else if(type == 3){
-                res  = para.getVal().substring(1);
+                return s.sub(1, length);
             }
             else {
-                res = para.getVal().substring(0, para.getVal().length()-1);
+                return s.sub(0, length - 1);
             }
-            return new Value(res, WORD_);
         }
         else if(para.getType() == LIST_) {
-            String content = para.getVal().substring(1,para.getVal().length()-1).trim();
-            Stack<String> elementStack = splitByBlank(content);
-            if(elementStack.size() == 0)
-                return new Value("[]", LIST_);
-
-            if(type != 2) {
-                elementStack = reverseStack(elementStack);
+            ListValue list = (ListValue) para;
+            int size = list.size();
+            if(size == 0) {
+                if(type <= 2)
+                    return errorThrow("The list is empty.");
+                return list;
             }
 
-            if(type <= 2) {
-                String res = (String) elementStack.peek();
-                if (res.charAt(0) == '[')
-                    return new Value(res, LIST_);
-                else
-                    return new Value(res, WORD_);
-            }
-            else {
-                StringBuilder res = new StringBuilder();
-                int size=0;
-                if(type == 3) {
-                    elementStack.pop();
-                    size = elementStack.size();
-                }
-                else {
-                     size = elementStack.size() - 1;
-                }
-                for (int i = 0; i < size; i++) {
-                    res.append(elementStack.pop());
-                    res.append(" ");
-                }
-                res = new StringBuilder(res.toString().trim());
-
-                return new Value("["+res+"]", LIST_);
-            }
+            if(type == 1)
+                return list.get(0);
+            else if(type == 2)
+                return list.get(size - 1);
+            else if(type == 3)
+                return list.subList(1, size);
+            else
+                return list.subList(0, size - 1);
         }
         else {
             errorThrow("The type of [first] should be LIST or WORD");
@@ -749,83 +1029,139 @@ public class Interpreter {
     }
 
     void analysisFunc(String name, Value wholeBody) {
-        String tmp = wholeBody.getVal();
-        int list1_start=0, list1_end=0;
-        int list2_start=0, list2_end=0;
-
-        int cnt = 0;
-        for(int i=1; i<tmp.length(); i++) {
-            if(tmp.charAt(i) == '[') {
-                if(cnt == 0)
-                    list1_start = i;
-                cnt++;
-            }
-            if(tmp.charAt(i) == ']') {
-                cnt--;
-                if(cnt == 0) {
-                    list1_end = i;
-                    break;
-                }
-            }
-        }
-        for(int i=list1_end+1; i<tmp.length(); i++) {
-            if(tmp.charAt(i) == '[') {
-                if(cnt == 0)
-                    list2_start = i;
-                cnt++;
-            }
-            if(tmp.charAt(i) == ']') {
-                cnt--;
-                if(cnt == 0) {
-                    list2_end = i;
-                    break;
-                }
-            }
-        }
+        ListValue tmp = (ListValue) wholeBody;
+        ListValue paraList = (ListValue) tmp.get(0);
+        ListValue trueBody = (ListValue) tmp.get(1);
+
+        Function f = newFunction(name, paraList, trueBody);
+        Function old = funcTable.put(name, f);
+        if(old != null && old.getArity() != f.getArity())
+            parseEpoch++;
+        defineEpoch++;
+        if(memo != null)
+            memo.clear();
+    }
 
-        Value paraList = new Value(tmp.substring(list1_start, list1_end+1), LIST_);
-        Value trueBody = new Value(tmp.substring(list2_start, list2_end+1), LIST_);
+    /**
+     * Make a function, named or not, before its body is parsed.
+     * @param name the name of function, empty for a function value.
+     * @param paraList the names of parameters.
+     * @param body the body.
+     * @return the function.
+     */
+    Function newFunction(String name, ListValue paraList, ListValue body) {
+        /* A parameter hides the constant of the same name */
+        for(int i=0; i<paraList.size(); i++)
+            forgetConstant(symbols.of(paraList.get(i)));
+        return new Function(name, paraList, body, symbols);
+    }
 
-        Function f = new Function(name, paraList, trueBody);
-        funcTable.put(name, f);
+    /**
+     * @param name the name of function.
+     * @return the number of parameters of function, -1 if there is no such function.
+     */
+    int funcArity(String name) {
+        Function f = funcTable.get(name);
+        return f == null ? -1 : f.getArity();
     }
 
-    Value runFunc(String funcName) {
-        Function F = funcTable.get(funcName);
+    /**
+     * Call the user function with a new frame.
+     * @param funcName the name of function.
+     * @param args the values of parameters, which become the slots of frame.
+     * @return the return value of function.
+     */
+    Value runFunc(String funcName, Value[] args) {
+        return call(funcTable.get(funcName), args);
+    }
 
-        /* Process variables first */
-        if(F.getParaList().getVal().compareTo("[]") == 0) {
-            F.setLocalVarTable(null);
+    /**
+     * Call the user function, timed by the profiler if the run is profiled,
+     * and recorded as an event if the flight recorder is started, see {@link Events}.
+     * @param F the function.
+     * @param args the values of parameters, which become the slots of frame.
+     * @return the return value of function.
+     */
+    Value call(Function F, Value[] args) {
+        if(profiler == null && !Events.isRecording())
+            return callKept(F, args);
+        Object event = Events.beginCall();
+        if(profiler != null)
+            profiler.enter(F);
+        try {
+            return callKept(F, args);
+        } finally {
+            if(profiler != null)
+                profiler.exit();
+            Events.endCall(event, F, depth);
         }
-        else {
-            String tmp = F.getParaList().getVal();
-            tmp = tmp.substring(1, tmp.length()-1);
-            String[] var = tmp.split("\\s+");
-            ArrayList<Value> list = new ArrayList<Value>();
-
-            for (String s : var) {
-                if (scanPerWord.hasNext()) {
-                    Value varName = selOprand(scanPerWord.next());
-                    list.add(varName);
-                } else
-                    errorThrow("Missing parameters:" + s);
-            }
-            for (int i = 0; i < list.size(); i++) {
-                /*
-                 * In order to complete P4,
-                 * the case where the variable is a function is not considered here
-                 */
-//                System.out.println(var[i] + " " +list.get(i).getVal());
-                F.getLocalVarTable().put(var[i], list.get(i));
-            }
+    }
+
+    /**
+     * Call the user function, or answer with the kept result if it is pure.
+     */
+    private Value callKept(Function F, Value[] args) {
+        if(memo == null || !Purity.isPure(this, F))
+            return callFunc(F, args);
+        Memo.Key key = Memo.key(F, args);
+        if(key == null)
+            return callFunc(F, args);
+        Value res = memo.get(key);
+        if(res == null) {
+            res = callFunc(F, args);
+            memo.put(key, res);
         }
-        Value funcItself = new Value(F.setValue(), FUNCTION_);
-        F.getLocalVarTable().put(funcName, funcItself);
+        return res;
+    }
+
+    private Value callFunc(Function F, Value[] args) {
+        if(vm != null)
+            return vm.callFunc(F, args);
+        Value res = FunctionCompiler.tryCall(this, F, args);
+        if(res != null)
+            return res;
+        Frame frame = new Frame(F, args);
 
         /* The part of the function that actually runs */
-        paraTableStack.push(F.getLocalVarTable());
-        Value res = runList(F.getFuncBody().getVal());
-        paraTableStack.pop();
+        pushFrame(frame);
+        res = runList(F.getFuncBody(), true);
+        /* A call in tail position reuses the frame, instead of nesting */
+        while (res == pendingCall) {
+            Function next = pendingCall.func;
+            args = pendingCall.args;
+            pendingCall.args = null;
+            Value compiled = FunctionCompiler.tryCall(this, next, args);
+            if(compiled != null) {
+                res = compiled;
+                break;
+            }
+            if(profiler != null)
+                profiler.replace(next);
+            frame.reuse(next, args);
+            res = runList(next.getFuncBody(), true);
+        }
+        popFrame();
         return res;
     }
-}
\ No newline at end of file
+
+    /**
+     * Prepare a call in tail position, which is run by the caller in {@link #runFunc}.
+     * @param funcName the name of function.
+     * @param args the values of parameters.
+     * @return the pending call.
+     */
+    Value tailCall(String funcName, Value[] args) {
+        return tailCall(funcTable.get(funcName), args);
+    }
+
+    /**
+     * @param F the function.
+     * @param args the values of parameters.
+     * @return the pending call.
+     */
+    Value tailCall(Function F, Value[] args) {
+        pendingCall.func = F;
+        pendingCall.args = args;
+        return pendingCall;
+    }
+}
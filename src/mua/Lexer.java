@@ -0,0 +1,134 @@
+package mua;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Hand-written lexer of MUA source.
+ * Words are separated by blanks, '[' and ']' are always tokens of their own.
+ * The source is either a reader, or the UTF-8 bytes of a file mapped into memory.
+ */
+public class Lexer implements Closeable {
+    private final Reader in;
+    /** The char read ahead while finishing the last token, -1 if none. */
+    private int pending = -1;
+    private final StringBuilder word = new StringBuilder();
+
+    /** The mapped bytes, null if the source is a reader. */
+    private final ByteBuffer bytes;
+    /** The bytes of the word being decoded. */
+    private byte[] scratch;
+
+    /**
+     * @param in the source of chars. It is read lazily, one token at a time.
+     */
+    public Lexer(Reader in) {
+        this.in = in;
+        this.bytes = null;
+    }
+
+    /**
+     * @param bytes the UTF-8 source, read from its position to its limit.
+     */
+    public Lexer(ByteBuffer bytes) {
+        this.in = null;
+        this.bytes = bytes;
+        this.scratch = new byte[64];
+    }
+
+    /**
+     * Map a file into memory and lex it from there, so it is neither copied to the heap nor decoded at once.
+     * @param fileName the name of file.
+     * @return the lexer of file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static Lexer open(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size <= Integer.MAX_VALUE)
+                return new Lexer(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+        /* A buffer cannot map more than 2 GB */
+        return new Lexer(new BufferedReader(new FileReader(fileName, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Read the next token from the source.
+     * A source which cannot be read stops the program with an error, instead of ending it quietly.
+     * @return the token, or null at the end of the source.
+     */
+    public String nextToken() {
+        if(bytes != null)
+            return nextMapped();
+        try {
+            int c = pending >= 0 ? pending : in.read();
+            pending = -1;
+            while (c >= 0 && isBlank(c))
+                c = in.read();
+            if(c < 0)
+                return null;
+            if(c == '[')
+                return "[";
+            if(c == ']')
+                return "]";
+
+            word.setLength(0);
+            while (c >= 0 && !isBlank(c) && c != '[' && c != ']') {
+                word.append((char) c);
+                c = in.read();
+            }
+            if(c == '[' || c == ']')
+                pending = c;
+            return word.toString();
+        } catch (IOException e) {
+            throw new MuaError("Cannot read the program: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The blanks and brackets are ASCII, which never appear inside a multi-byte UTF-8 char,
+     * so the words are found on the bytes and only the words are decoded.
+     */
+    private String nextMapped() {
+        int pos = bytes.position();
+        int limit = bytes.limit();
+        while (pos < limit && isBlank(bytes.get(pos)))
+            pos++;
+        if(pos == limit) {
+            bytes.position(pos);
+            return null;
+        }
+        byte c = bytes.get(pos);
+        if(c == '[' || c == ']') {
+            bytes.position(pos + 1);
+            return c == '[' ? "[" : "]";
+        }
+
+        int start = pos;
+        while (pos < limit && !isBlank(c = bytes.get(pos)) && c != '[' && c != ']')
+            pos++;
+        int len = pos - start;
+        if(len > scratch.length)
+            scratch = new byte[Math.max(len, scratch.length * 2)];
+        bytes.get(start, scratch, 0, len);
+        bytes.position(pos);
+        return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    public void close() throws IOException {
+        if(in != null)
+            in.close();
+    }
+
+    static boolean isBlank(int c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+}
@@ -0,0 +1,140 @@
+package mua;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The functions over lists, [map], [filter] and [reduce].
+ * The function is the name of a user function or a function value, like [[x] [return mul :x :x]].
+ * A pure function, see {@link Purity}, is applied to a long list in the common fork/join pool,
+ * each thread with an interpreter of its own made by {@link Interpreter#fork()}.
+ */
+final class ListOps {
+    /** The least length of list which is worth to split between threads. */
+    static final int PARALLEL_THRESHOLD = 1024;
+    /** The length of part which is run by one task. */
+    private static final int LEAF_SIZE = 256;
+
+    private ListOps() {
+    }
+
+    /**
+     * - map <function> <list>
+     * @return the list of results of function applied to each element.
+     */
+    static Value map(Interpreter in, Value func, Value list) {
+        Function F = function(in, func, 1, "map");
+        ListValue elements = list(in, list, "map");
+        return new ListValue(apply(in, F, elements));
+    }
+
+    /**
+     * - filter <function> <list>
+     * @return the list of elements for which the function returns true.
+     */
+    static Value filter(Interpreter in, Value func, Value list) {
+        Function F = function(in, func, 1, "filter");
+        ListValue elements = list(in, list, "filter");
+        Value[] keep = apply(in, F, elements);
+        Value[] res = new Value[keep.length];
+        int size = 0;
+        for(int i=0; i<keep.length; i++) {
+            if(keep[i] == null || keep[i].getType() != Interpreter.BOOl_)
+                return in.errorThrow("The function of filter does not return a BOOL");
+            if(keep[i] == Value.TRUE)
+                res[size++] = elements.get(i);
+        }
+        return new ListValue(res, size, Interpreter.LIST_);
+    }
+
+    /**
+     * - reduce <function> <value> <list>
+     * The elements are folded from left to right, starting with the value.
+     * @return the last result of function.
+     */
+    static Value reduce(Interpreter in, Value func, Value init, Value list) {
+        Function F = function(in, func, 2, "reduce");
+        ListValue elements = list(in, list, "reduce");
+        Value res = init;
+        for(int i=0; i<elements.size(); i++) {
+            res = in.call(F, new Value[]{res, elements.get(i)});
+            if(res == null)
+                return in.errorThrow("The function of reduce does not return a value");
+        }
+        return res;
+    }
+
+    /**
+     * @return the results of function applied to each element, in the threads of pool if it is worth.
+     */
+    private static Value[] apply(Interpreter in, Function F, ListValue elements) {
+        Value[] res = new Value[elements.size()];
+        if(res.length >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1
+                && Purity.isPure(in, F))
+            ForkJoinPool.commonPool().invoke(new Apply(in, F, elements, res, 0, res.length));
+        else {
+            for(int i=0; i<res.length; i++)
+                res[i] = in.call(F, new Value[]{elements.get(i)});
+        }
+        return res;
+    }
+
+    /**
+     * @param func the name of user function, or a function value.
+     * @param arity the number of parameters wanted.
+     * @return the function.
+     */
+    private static Function function(Interpreter in, Value func, int arity, String op) {
+        Function F = null;
+        if(func.getType() == Interpreter.FUNCTION_) {
+            ListValue f = (ListValue) func;
+            F = in.newFunction("", (ListValue) f.get(0), (ListValue) f.get(1));
+        }
+        else if(!func.isList())
+            F = in.getFunction(func.getVal());
+        if(F == null)
+            in.errorThrow("The first argument of " + op + " is not a function.");
+        else if(F.getArity() != arity)
+            in.errorThrow("The function of " + op + " should have " + arity + " parameter(s).");
+        return F;
+    }
+
+    private static ListValue list(Interpreter in, Value list, String op) {
+        if(!list.isList())
+            in.errorThrow("The last argument of " + op + " is not a LIST.");
+        return (ListValue) list;
+    }
+
+    /** A part of elements, split in halves until it is small enough. */
+    private static final class Apply extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Interpreter in;
+        private final Function F;
+        private final ListValue elements;
+        private final Value[] res;
+        private final int from;
+        private final int to;
+
+        Apply(Interpreter in, Function F, ListValue elements, Value[] res, int from, int to) {
+            this.in = in;
+            this.F = F;
+            this.elements = elements;
+            this.res = res;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= LEAF_SIZE) {
+                Interpreter worker = in.fork();
+                for(int i=from; i<to; i++)
+                    res[i] = worker.call(F, new Value[]{elements.get(i)});
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Apply(in, F, elements, res, from, mid), new Apply(in, F, elements, res, mid, to));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package mua;
+
+/**
+ * A list, which keeps its elements as values.
+ * A list with two lists in it is a function, whose type is FUNCTION_.
+ *
+ * A list is a slice [from, to) of a shared buffer. Taking a part of it only makes a new slice,
+ * so first/last/butfirst/butlast are O(1). The slice ending at the filled end of the buffer
+ * may append in place, the others have to copy, so joining to the end of a list is amortized O(1)
+ * and every list that shares the buffer still sees the same elements.
+ */
+public final class ListValue extends Value {
+    public static final ListValue EMPTY = new ListValue(new Value[0]);
+
+    /** The shared storage. Elements before size are never modified. */
+    private static final class Buffer {
+        Value[] data;
+        int size;
+
+        Buffer(Value[] data, int size) {
+            this.data = data;
+            this.size = size;
+        }
+
+        /**
+         * Take the free room after end, if nobody has taken it.
+         * @param end the end of the slice which asks.
+         * @param n the number of elements to append.
+         * @return true if the elements can be written after end.
+         */
+        synchronized boolean claim(int end, int n) {
+            if(end != size || size + n > data.length)
+                return false;
+            size += n;
+            return true;
+        }
+    }
+
+    private final Buffer buf;
+    private final int from;
+    private final int to;
+    private final int type;
+    /** Parsed code of the list body, cached by the interpreter. */
+    private Block code;
+    /** Compiled code of the list body, cached by the {@link VM}. */
+    private Chunk chunk;
+    private Chunk tailChunk;
+
+    /**
+     * @param elements the elements, owned by the list from now on.
+     */
+    public ListValue(Value[] elements) {
+        this(elements, Interpreter.LIST_);
+    }
+
+    /**
+     * @param elements the elements, owned by the list from now on.
+     * @param type LIST_ or FUNCTION_.
+     */
+    public ListValue(Value[] elements, int type) {
+        this(new Buffer(elements, elements.length), 0, elements.length, type);
+    }
+
+    /**
+     * @param data the array, owned by the list from now on. The elements are in [0, size),
+     *             the room after them is used by later appends.
+     * @param size the number of elements.
+     * @param type LIST_ or FUNCTION_.
+     */
+    ListValue(Value[] data, int size, int type) {
+        this(new Buffer(data, size), 0, size, type);
+    }
+
+    private ListValue(Buffer buf, int from, int to, int type) {
+        this.buf = buf;
+        this.from = from;
+        this.to = to;
+        this.type = type;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public boolean isList() {
+        return true;
+    }
+
+    public int size() {
+        return to - from;
+    }
+
+    public boolean isEmpty() {
+        return to == from;
+    }
+
+    public Value get(int i) {
+        return buf.data[from + i];
+    }
+
+    /**
+     * @param from the first index, included.
+     * @param to the last index, excluded.
+     * @return the list of elements in [from, to), sharing the buffer.
+     */
+    public ListValue subList(int from, int to) {
+        return new ListValue(buf, this.from + from, this.from + to, Interpreter.LIST_);
+    }
+
+    /**
+     * @param v the element.
+     * @return a new list with v after the elements of this list.
+     */
+    public ListValue append(Value v) {
+        if(buf.claim(to, 1)) {
+            buf.data[to] = v;
+            return new ListValue(buf, from, to + 1, Interpreter.LIST_);
+        }
+        Value[] res = copy(1);
+        res[size()] = v;
+        return new ListValue(new Buffer(res, size() + 1), 0, size() + 1, Interpreter.LIST_);
+    }
+
+    /**
+     * @param other the list to put at the end.
+     * @return a new list with the elements of this list and other.
+     */
+    public ListValue concat(ListValue other) {
+        int n = other.size();
+        if(n == 0)
+            return type == Interpreter.LIST_ ? this : subList(0, size());
+        if(buf.claim(to, n)) {
+            System.arraycopy(other.buf.data, other.from, buf.data, to, n);
+            return new ListValue(buf, from, to + n, Interpreter.LIST_);
+        }
+        Value[] res = copy(n);
+        System.arraycopy(other.buf.data, other.from, res, size(), n);
+        return new ListValue(new Buffer(res, size() + n), 0, size() + n, Interpreter.LIST_);
+    }
+
+    /**
+     * @param extra the number of elements that will be appended.
+     * @return a new array with the elements of this list and room after them.
+     */
+    private Value[] copy(int extra) {
+        int size = size();
+        Value[] res = new Value[Math.max(size + extra, size * 2)];
+        System.arraycopy(buf.data, from, res, 0, size);
+        return res;
+    }
+
+    public Block getCode() {return code;}
+    public void setCode(Block b) {this.code = b;}
+    Chunk getChunk() {return chunk;}
+    void setChunk(Chunk c) {this.chunk = c;}
+    Chunk getTailChunk() {return tailChunk;}
+    void setTailChunk(Chunk c) {this.tailChunk = c;}
+
+    /**
+     * @return the text of list, with brackets.
+     */
+    public String getVal() {
+        StringBuilder res = new StringBuilder();
+        appendTo(res);
+        return res.toString();
+    }
+
+    /**
+     * @return the text of elements, without the outer brackets.
+     */
+    public String getContent() {
+        StringBuilder res = new StringBuilder();
+        appendContentTo(res);
+        return res.toString();
+    }
+
+    void appendTo(StringBuilder sb) {
+        sb.append('[');
+        appendContentTo(sb);
+        sb.append(']');
+    }
+
+    void appendContentTo(StringBuilder sb) {
+        for(int i=from; i<to; i++) {
+            if(i > from)
+                sb.append(' ');
+            buf.data[i].appendTo(sb);
+        }
+    }
+}
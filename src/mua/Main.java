@@ -1,10 +1,118 @@
 package mua;
 
+import java.io.IOException;
+import java.util.ArrayList;
+
 public class Main {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 	// write your code here
+        boolean memoStats = false;
+        boolean batch = false;
+        boolean profile = false;
+        String folded = null;
+        int server = 0;
+        int client = 0;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        ArrayList<String> files = new ArrayList<>();
+        for (String arg : args) {
+            // --memo-stats : print the hits and misses of kept results at the end
+            if(arg.equals("--memo-stats"))
+                memoStats = true;
+            // --profile[=<file>] : print the counts and times of calls at the end, and write collapsed stacks to the file
+            else if(arg.startsWith("--profile")) {
+                profile = true;
+                folded = arg.indexOf('=') < 0 ? "mua.folded" : arg.substring(arg.indexOf('=') + 1);
+            }
+            // --batch <file>... : run each file as a program, with its output in <file>.out
+            else if(arg.equals("--batch"))
+                batch = true;
+            // --jobs=<n> : run n programs of the batch at the same time
+            else if(arg.startsWith("--jobs="))
+                jobs = jobs(arg);
+            // --server[=<port>] : keep running, and run each program sent to the port on the loopback address
+            else if(arg.startsWith("--server"))
+                server = port(arg);
+            // --client[=<port>] : send stdin to the server and print what it returns
+            else if(arg.startsWith("--client"))
+                client = port(arg);
+            else if(!arg.startsWith("--"))
+                files.add(arg);
+        }
+        if(client != 0) {
+            System.exit(Server.client(client));
+        }
+        if(server != 0)
+            Server.serve(server, jobs, () -> create(args));
+        if(batch)
+            System.exit(Batch.run(files, jobs, () -> create(args)) == 0 ? 0 : 1);
+
+        Interpreter muaInterpreter = create(args);
+        // a terminal sees each line as soon as it is printed
+        if(System.console() != null)
+            muaInterpreter.setLineMode(true);
+        if(profile)
+            muaInterpreter.profile();
+        int status = muaInterpreter.run();
+        if(profile)
+            muaInterpreter.getProfiler().report(System.err, folded);
+        if(memoStats)
+            System.err.println("memo: " + muaInterpreter.getMemoHits() + " hits, "
+                    + muaInterpreter.getMemoMisses() + " misses");
+        if(status != 0)
+            System.exit(status);
+    }
+
+    /**
+     * @param arg the option --jobs=<n>.
+     * @return n, the process exits with a usage message if it is not a number at least 1.
+     */
+    private static int jobs(String arg) {
+        int n;
+        try {
+            n = Integer.parseInt(arg.substring(7));
+        } catch (NumberFormatException e) {
+            n = 0;
+        }
+        if(n < 1) {
+            System.err.println("usage: --jobs=<n>, where n is the number of programs run at the same time, at least 1");
+            System.exit(2);
+        }
+        return n;
+    }
+
+    /**
+     * @param arg an option like --server=<port>.
+     * @return the port, or the default one if it is not given.
+     */
+    private static int port(String arg) {
+        int eq = arg.indexOf('=');
+        return eq < 0 ? Server.DEFAULT_PORT : Integer.parseInt(arg.substring(eq + 1));
+    }
+
+    /**
+     * @param args the options of command line.
+     * @return an interpreter set up by the options.
+     */
+    static Interpreter create(String[] args) {
         Interpreter muaInterpreter = new Interpreter();
-        muaInterpreter.run();
+        for (String arg : args) {
+            // --vm : run with the bytecode VM, the tree walking interpreter is the reference
+            if(arg.equals("--vm"))
+                muaInterpreter.useVM();
+            // --line : flush the output after each line, for interactive use
+            else if(arg.equals("--line"))
+                muaInterpreter.setLineMode(true);
+            // --memo=<n> : keep n results of pure functions, 0 to keep none
+            else if(arg.startsWith("--memo="))
+                muaInterpreter.setMemoCapacity(Integer.parseInt(arg.substring(7)));
+            // --hot=<n> : compile a function to JVM bytecode after n calls, 0 to never compile
+            else if(arg.startsWith("--hot="))
+                muaInterpreter.setHotThreshold(Integer.parseInt(arg.substring(6)));
+            // --image=<file> : read the image written by [saveimage] before the program runs
+            else if(arg.startsWith("--image="))
+                muaInterpreter.setImage(arg.substring(8));
+        }
+        return muaInterpreter;
     }
 }
@@ -0,0 +1,127 @@
+package mua;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The results of calls of pure functions, see {@link Purity}, kept in a bounded LRU cache.
+ * A call is keyed by the function and the values of its parameters.
+ * Calls with lists are not kept, a list would be compared element by element,
+ * nor calls with arrays or dicts, which are changed in place after the call.
+ * Every definition of function clears the cache, since a function may call the one redefined.
+ */
+final class Memo {
+    /** The number of results kept, by default. */
+    static final int DEFAULT_CAPACITY = 10000;
+
+    private final LinkedHashMap<Key, Value> cache;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity the number of results kept, the least recently used one is dropped first.
+     */
+    Memo(int capacity) {
+        cache = new LinkedHashMap<Key, Value>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, Value> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param F the function.
+     * @param args the values of parameters.
+     * @return the key of call, null if the call cannot be kept.
+     */
+    static Key key(Function F, Value[] args) {
+        int hash = F.hashCode();
+        for (Value v : args) {
+            if(v.isList() || v.getType() == Interpreter.ARRAY_ || v.getType() == Interpreter.DICT_)
+                return null;
+            hash = hash * 31 + hash(v);
+        }
+        return new Key(F, args, hash);
+    }
+
+    /**
+     * @return the result of call, null if it is not kept.
+     */
+    Value get(Key key) {
+        Value res = cache.get(key);
+        if(res != null)
+            hits++;
+        else
+            misses++;
+        return res;
+    }
+
+    void put(Key key, Value res) {
+        if(res != null)
+            cache.put(key, res);
+    }
+
+    void clear() {
+        cache.clear();
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    private static int hash(Value v) {
+        if(v instanceof NumberValue)
+            return Double.hashCode(v.getNumber());
+        if(v instanceof WordValue)
+            return v.getVal().hashCode();
+        return System.identityHashCode(v);
+    }
+
+    /**
+     * Numbers are the same if they are equal and print the same, e.g. 16 and 16.0 are not,
+     * since a function may return its parameter as it is.
+     */
+    private static boolean same(Value a, Value b) {
+        if(a == b)
+            return true;
+        if(a instanceof NumberValue && b instanceof NumberValue)
+            return Double.compare(a.getNumber(), b.getNumber()) == 0 && a.getVal().equals(b.getVal());
+        if(a instanceof WordValue && b instanceof WordValue)
+            return a.getType() == b.getType() && a.getVal().equals(b.getVal());
+        return false;
+    }
+
+    /** A call of pure function. */
+    static final class Key {
+        private final Function func;
+        private final Value[] args;
+        private final int hash;
+
+        private Key(Function func, Value[] args, int hash) {
+            this.func = func;
+            this.args = args;
+            this.hash = hash;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if(!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            if(k.func != func || k.hash != hash)
+                return false;
+            for(int i=0; i<args.length; i++) {
+                if(!same(args[i], k.args[i]))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package mua;
+
+/**
+ * An error of the running program, thrown by {@link Interpreter#errorThrow}.
+ * It ends the run of the interpreter which throws it, and nothing else in the same JVM.
+ */
+final class MuaError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    MuaError(String msg) {
+        super(msg, null, false, false);
+    }
+}
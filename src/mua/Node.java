@@ -0,0 +1,140 @@
+package mua;
+
+/**
+ * A node of parsed MUA code.
+ * A list body is parsed into nodes once and cached on the list value,
+ * so later executions walk the tree instead of re-reading the tokens.
+ */
+public abstract class Node {
+    /**
+     * @param in the interpreter which runs the code.
+     * @return the value of this node.
+     */
+    abstract Value eval(Interpreter in);
+
+    /**
+     * Evaluate the node in tail position of a function body.
+     * A call of user function is not run, but returned as a {@link TailCall}.
+     * @param in the interpreter which runs the code.
+     * @return the value of this node, or a tail call.
+     */
+    Value evalTail(Interpreter in) {
+        return eval(in);
+    }
+
+    /** A word, number, bool or list written in the code. */
+    static final class Literal extends Node {
+        final Value value;
+
+        Literal(Value value) {
+            this.value = value;
+        }
+
+        Value eval(Interpreter in) {
+            return value;
+        }
+    }
+
+    /** - :name */
+    static final class Var extends Node {
+        final String name;
+        /** The id of name, see {@link Symbols}. */
+        final int id;
+        /** The slot of name in the frame of the last function met. */
+        private Slot cache;
+
+        Var(String name, Symbols symbols) {
+            this.name = name;
+            this.id = symbols.intern(name);
+        }
+
+        Value eval(Interpreter in) {
+            Frame frame = in.currentFrame();
+            if(frame.func != null) {
+                Slot c = cache;
+                if(c == null || c.func != frame.func) {
+                    c = new Slot(frame.func, frame.func.slotOf(id));
+                    cache = c;
+                }
+                if(c.slot >= 0 && frame.slots[c.slot] != null)
+                    return frame.slots[c.slot];
+            }
+            return in.lookup(id, name);
+        }
+    }
+
+    /** A parameter slot resolved for a function. */
+    private static final class Slot {
+        final Function func;
+        final int slot;
+
+        Slot(Function func, int slot) {
+            this.func = func;
+            this.slot = slot;
+        }
+    }
+
+    /** A builtin operation with its arguments. */
+    static final class Call extends Node {
+        final String op;
+        final Primitive prim;
+        final Node[] args;
+
+        Call(String op, Primitive prim, Node[] args) {
+            this.op = op;
+            this.prim = prim;
+            this.args = args;
+        }
+
+        Value eval(Interpreter in) {
+            return prim.apply(in, evalArgs(in, args));
+        }
+
+        Value evalTail(Interpreter in) {
+            return prim.applyTail(in, evalArgs(in, args));
+        }
+    }
+
+    /** A call of user function registered in the function table. */
+    static final class FuncCall extends Node {
+        final String name;
+        final Node[] args;
+
+        FuncCall(String name, Node[] args) {
+            this.name = name;
+            this.args = args;
+        }
+
+        Value eval(Interpreter in) {
+            return in.runFunc(name, evalArgs(in, args));
+        }
+
+        Value evalTail(Interpreter in) {
+            return in.tailCall(name, evalArgs(in, args));
+        }
+    }
+
+    /** - return <value>, which ends the list being run. */
+    static final class Return extends Node {
+        final Node value;
+
+        Return(Node value) {
+            this.value = value;
+        }
+
+        Value eval(Interpreter in) {
+            return value.eval(in);
+        }
+
+        Value evalTail(Interpreter in) {
+            return value.evalTail(in);
+        }
+    }
+
+    static Value[] evalArgs(Interpreter in, Node[] args) {
+        Value[] res = new Value[args.length];
+        for(int i=0; i<args.length; i++)
+            res[i] = args[i].eval(in);
+        return res;
+    }
+}
@@ -0,0 +1,149 @@
+package mua;
+
+/**
+ * A number, kept as unboxed double.
+ * A whole number up to 2^53 is exact in the double, so it is also read as a long, see {@link #isWhole},
+ * and the arithmetic on two of them is done on longs. The small ones which are computed are shared.
+ */
+public final class NumberValue extends Value {
+    /** The greatest whole number which every double near it can tell from its neighbours. */
+    static final long MAX_EXACT = 1L << 53;
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    /** The computed numbers in [CACHE_LOW, CACHE_HIGH), printed like 3.0. */
+    private static final NumberValue[] computed = new NumberValue[CACHE_HIGH - CACHE_LOW];
+    /** The results of [int] in the same range, printed like 3. */
+    private static final NumberValue[] integers = new NumberValue[CACHE_HIGH - CACHE_LOW];
+
+    static {
+        for(int i=CACHE_LOW; i<CACHE_HIGH; i++) {
+            computed[i - CACHE_LOW] = new NumberValue(i);
+            computed[i - CACHE_LOW].text = i + ".0";
+            integers[i - CACHE_LOW] = new NumberValue(i);
+            integers[i - CACHE_LOW].text = String.valueOf(i);
+        }
+    }
+
+    private final double num;
+    /** The text of number, which is formatted when first needed. */
+    private String text;
+
+    /**
+     * @param num the number.
+     */
+    public NumberValue(double num) {
+        this.num = num;
+    }
+
+    /**
+     * @param num the number.
+     * @param text the text written in the code, which is kept for printing.
+     */
+    public NumberValue(double num, String text) {
+        this.num = num;
+        this.text = text;
+    }
+
+    /**
+     * @param num a computed number.
+     * @return the number, shared if it is a small whole number.
+     */
+    public static NumberValue of(double num) {
+        if(isWhole(num))
+            return of((long) num);
+        return new NumberValue(num);
+    }
+
+    /**
+     * @param n a computed whole number, within MAX_EXACT.
+     * @return the number, shared if it is small.
+     */
+    static NumberValue of(long n) {
+        if(n >= CACHE_LOW && n < CACHE_HIGH)
+            return computed[(int) n - CACHE_LOW];
+        return new NumberValue(n);
+    }
+
+    /**
+     * @param n the result of [int], within MAX_EXACT.
+     * @return the number, printed without fraction.
+     */
+    static NumberValue integer(long n) {
+        if(n >= CACHE_LOW && n < CACHE_HIGH)
+            return integers[(int) n - CACHE_LOW];
+        NumberValue res = new NumberValue(n);
+        res.text = String.valueOf(n);
+        return res;
+    }
+
+    private static boolean isWhole(double num) {
+        return num == (long) num && Math.abs(num) <= MAX_EXACT
+                && Double.doubleToRawLongBits(num) != Long.MIN_VALUE;
+    }
+
+    public int getType() {
+        return Interpreter.NUMBER_;
+    }
+
+    public double getNumber() {
+        return num;
+    }
+
+    /**
+     * @return whether the number is whole and exact as a long.
+     */
+    boolean isWhole() {
+        return isWhole(num);
+    }
+
+    /**
+     * @return the number as a long, only exact if {@link #isWhole}.
+     */
+    long longValue() {
+        return (long) num;
+    }
+
+    public String getVal() {
+        if(text == null)
+            text = format();
+        return text;
+    }
+
+    /**
+     * @return the same text as String.valueOf(num), without formatting a double if the number is small and whole.
+     */
+    private String format() {
+        /* Below 10^7 a whole double is printed in plain notation, with .0 */
+        if(isWhole() && Math.abs(num) < 1e7)
+            return Long.toString((long) num).concat(".0");
+        return String.valueOf(num);
+    }
+
+    /**
+     * @return whether the number prints the same as the computed number of its value,
+     *         so it can be kept unboxed, e.g. 3.5 does but 3 written in the code does not.
+     */
+    boolean printsAsComputed() {
+        if(text == null)
+            return true;
+        if(isWhole() && num >= CACHE_LOW && num < CACHE_HIGH && computed[(int) num - CACHE_LOW] == this)
+            return true;
+        return text.equals(format());
+    }
+
+    /**
+     * @return the text written in the code, null if the number is computed.
+     */
+    String getText() {
+        return text;
+    }
+
+    void appendTo(StringBuilder sb) {
+        if(text != null)
+            sb.append(text);
+        else if(isWhole() && Math.abs(num) < 1e7)
+            sb.append((long) num).append(".0");
+        else
+            sb.append(num);
+    }
+}
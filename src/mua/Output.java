@@ -0,0 +1,114 @@
+package mua;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * The output of [print], owned by the {@link Interpreter}.
+ * Values are written into one buffer and encoded in blocks, instead of one flush per line.
+ * The interpreter flushes it when the program ends and before [read] waits for input.
+ * In line mode every line is flushed at once, for interactive use.
+ */
+final class Output {
+    private static final int LIMIT = 8192;
+
+    private final OutputStream out;
+    private final StringBuilder buf = new StringBuilder(LIMIT + 256);
+    private final CharsetEncoder encoder;
+    private final ByteBuffer bytes = ByteBuffer.allocate(LIMIT);
+    private final boolean lineMode;
+    /** The failure of writing, null while the stream works. */
+    private IOException error;
+
+    /**
+     * @param out the stream to write to.
+     * @param lineMode whether each line is flushed at once.
+     */
+    Output(OutputStream out, boolean lineMode) {
+        this.out = out;
+        this.lineMode = lineMode;
+        encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Write the text of value and a line break.
+     */
+    void println(Value v) {
+        v.appendTo(buf);
+        endLine();
+    }
+
+    /**
+     * Write the elements of list without the brackets, and a line break.
+     */
+    void printContent(ListValue list) {
+        list.appendContentTo(buf);
+        endLine();
+    }
+
+    void println(String s) {
+        buf.append(s);
+        endLine();
+    }
+
+    private void endLine() {
+        buf.append('\n');
+        if(lineMode || buf.length() >= LIMIT)
+            flush();
+    }
+
+    /**
+     * Encode the buffered text and write it out.
+     * The first failure stops the program with an error, what is printed after it is dropped.
+     */
+    void flush() {
+        if(error != null) {
+            buf.setLength(0);
+            return;
+        }
+        try {
+            if(buf.length() > 0) {
+                CharBuffer chars = CharBuffer.wrap(buf);
+                encoder.reset();
+                CoderResult res;
+                do {
+                    res = encoder.encode(chars, bytes, true);
+                    drain();
+                } while (res.isOverflow());
+                while (encoder.flush(bytes).isOverflow())
+                    drain();
+                drain();
+                buf.setLength(0);
+            }
+            out.flush();
+            /* A print stream, like System.out, keeps its failures to itself */
+            if(out instanceof PrintStream && ((PrintStream) out).checkError())
+                throw new IOException("the stream reports an error");
+        } catch (IOException e) {
+            buf.setLength(0);
+            error = e;
+            throw new MuaError("Cannot write the output: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return whether the output cannot be written any more.
+     */
+    boolean isBroken() {
+        return error != null;
+    }
+
+    private void drain() throws IOException {
+        out.write(bytes.array(), 0, bytes.position());
+        bytes.clear();
+    }
+}
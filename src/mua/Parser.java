@@ -0,0 +1,240 @@
+package mua;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Turn tokens into {@link Node}s, with the number of parameters of every operation resolved.
+ * Calls of builtins on literals are folded into literals when they cannot fail,
+ * [if] on a literal bool keeps only the branch taken, and constants like pi are inlined.
+ */
+public class Parser {
+    private final Interpreter in;
+    /** If true, a parse error throws {@link ParseFailure} instead of stopping the program. */
+    private boolean lenient;
+
+    /** Thrown in lenient mode, see {@link #parseAll}. */
+    private static final class ParseFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ParseFailure() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * @param in the interpreter, whose primitive table and function table give the arity of operations.
+     */
+    public Parser(Interpreter in) {
+        this.in = in;
+    }
+
+    /**
+     * Parse all the statements of list at once.
+     * @param list the list body.
+     * @return the statements, or null if some statement cannot be parsed now,
+     *         e.g. it calls a function which is defined by an earlier statement of the list.
+     */
+    Node[] parseAll(ListValue list) {
+        return parseAll(list, null);
+    }
+
+    /**
+     * Parse all the statements of list at once.
+     * @param list the list body.
+     * @param ends if not null, ends[i] is set to the index of element after the statement i.
+     * @return the statements, or null if some statement cannot be parsed now.
+     */
+    Node[] parseAll(ListValue list, int[] ends) {
+        ArrayList<Node> res = new ArrayList<>();
+        TokenStream ts = new TokenStream(list);
+        boolean old = lenient;
+        lenient = true;
+        try {
+            while (ts.hasNext()) {
+                res.add(parseStatement(ts));
+                if(ends != null)
+                    ends[res.size() - 1] = ts.position();
+            }
+        } catch (ParseFailure e) {
+            return null;
+        } finally {
+            lenient = old;
+        }
+        return res.toArray(new Node[0]);
+    }
+
+    /**
+     * Parse a statement, which may be a [return].
+     * @param ts the tokens.
+     * @return the node of statement.
+     */
+    Node parseStatement(TokenStream ts) {
+        String oprand = ts.next();
+        if(oprand.equals("return"))
+            return new Node.Return(parseExpr(ts));
+        return parse(oprand, ts);
+    }
+
+    /**
+     * Parse an expression.
+     * @param ts the tokens.
+     * @return the node of expression.
+     */
+    Node parseExpr(TokenStream ts) {
+        String oprand = ts.next();
+        if(oprand == null) {
+            fail("Missing parameters.");
+            return null;
+        }
+        return parse(oprand, ts);
+    }
+
+    /**
+     * Parse the expression which starts with oprand.
+     * @param oprand the first token.
+     * @param ts the rest tokens.
+     * @return the node of expression.
+     */
+    private Node parse(String oprand, TokenStream ts) {
+        if(oprand.charAt(0) == '"') {
+            String s = oprand.substring(1);
+            if(in.isNumeric(s))
+                return new Node.Literal(new NumberValue(Double.parseDouble(s), s));
+            else
+                return new Node.Literal(new WordValue(s));
+        }
+        else if(in.isNumeric(oprand)) {
+            return new Node.Literal(new NumberValue(Double.parseDouble(oprand), oprand));
+        }
+        else if(oprand.equals("true") || oprand.equals("false")) {
+            return new Node.Literal(Value.bool(oprand.equals("true")));
+        }
+        else if(oprand.charAt(0) == ':') {
+            Node.Var var = new Node.Var(oprand.substring(1), in.getSymbols());
+            Value constant = in.getConstant(var.id);
+            return constant != null ? new Node.Literal(constant) : var;
+        }
+        else if(oprand.equals("[")) {
+            return new Node.Literal(readList(ts));
+        }
+
+        Primitive prim = in.getPrimitive(oprand);
+        if(prim != null) {
+            return fold(new Node.Call(oprand, prim, parseArgs(prim.getArity(), ts)));
+        }
+        int funcArity = in.funcArity(oprand);
+        if(funcArity >= 0) {
+            return new Node.FuncCall(oprand, parseArgs(funcArity, ts));
+        }
+
+        fail("Unknown instruction: " + oprand);
+        return null;
+    }
+
+    /**
+     * @param call a call of builtin.
+     * @return a literal if all arguments are literals and the call cannot fail,
+     *         the branch taken if it is an [if] on a literal, otherwise the call itself.
+     */
+    private Node fold(Node.Call call) {
+        Value[] args = new Value[call.args.length];
+        for(int i=0; i<args.length; i++) {
+            if(call.args[i] instanceof Node.Literal)
+                args[i] = ((Node.Literal) call.args[i]).value;
+        }
+
+        boolean foldable;
+        switch (call.op) {
+            case "add":
+            case "sub":
+            case "mul":
+                foldable = isType(args[0], Interpreter.NUMBER_) && isType(args[1], Interpreter.NUMBER_);
+                break;
+            case "div":
+            case "mod":
+                foldable = isType(args[0], Interpreter.NUMBER_) && isType(args[1], Interpreter.NUMBER_)
+                        && args[1].getNumber() != 0;
+                break;
+            case "and":
+            case "or":
+                foldable = isType(args[0], Interpreter.BOOl_) && isType(args[1], Interpreter.BOOl_);
+                break;
+            case "not":
+                foldable = isType(args[0], Interpreter.BOOl_);
+                break;
+            case "eq":
+            case "gt":
+            case "lt":
+                foldable = args[0] != null && args[1] != null && !args[0].isList() && !args[1].isList();
+                break;
+            case "if": {
+                /* - if true [list1] [list2] is run [list1], the other branch is dropped only if it is literal,
+                   otherwise it is still evaluated as an argument */
+                if(!isType(args[0], Interpreter.BOOl_) || args[1] == null || args[2] == null)
+                    return call;
+                Node taken = call.args[args[0] == Value.TRUE ? 1 : 2];
+                if(!((Node.Literal) taken).value.isList())
+                    return call;
+                return new Node.Call("run", in.getPrimitive("run"), new Node[]{taken});
+            }
+            default:
+                foldable = false;
+        }
+        return foldable ? new Node.Literal(Profiler.unwrap(call.prim).apply(in, args)) : call;
+    }
+
+    private static boolean isType(Value v, int type) {
+        return v != null && v.getType() == type;
+    }
+
+    private void fail(String msg) {
+        if(lenient)
+            throw new ParseFailure();
+        in.errorThrow(msg);
+    }
+
+    private Node[] parseArgs(int arity, TokenStream ts) {
+        Node[] args = new Node[arity];
+        for(int i=0; i<arity; i++)
+            args[i] = parseExpr(ts);
+        return args;
+    }
+
+    /**
+     * Read list body in one pass. Nested lists are read by recursion, so each token is read once,
+     * and the elements are put into the array which becomes the list.
+     * @param ts the tokens after the opening '['.
+     * @return the list. If it is composed of two lists, it is a function.
+     */
+    Value readList(TokenStream ts) {
+        ListValue element = ts.takeList();
+        if(element != null)
+            return element;
+
+        Object event = Events.beginList();
+        Value[] elements = new Value[8];
+        int size = 0;
+        int lists = 0;
+        while (true) {
+            String tmp = ts.next();
+            if(tmp == null)
+                return in.errorThrow("Missing ']' at the end of list.");
+            if(tmp.equals("]"))
+                break;
+            Value v;
+            if(tmp.equals("[")) {
+                v = readList(ts);
+                lists++;
+            }
+            else
+                v = new WordValue(tmp);
+            if(size == elements.length)
+                elements = Arrays.copyOf(elements, size * 2);
+            elements[size++] = v;
+        }
+
+        Events.endList(event, "readList", size);
+        return new ListValue(elements, size, size == 2 && lists == 2 ? Interpreter.FUNCTION_ : Interpreter.LIST_);
+    }
+}
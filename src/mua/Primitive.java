@@ -0,0 +1,29 @@
+package mua;
+
+/**
+ * A builtin operation of MUA, which is looked up once when the code is parsed.
+ */
+public interface Primitive {
+    /**
+     * @return the number of parameters.
+     */
+    int getArity();
+
+    /**
+     * @param in the interpreter.
+     * @param args the values of parameters, evaluated in order.
+     * @return the return value after the operation is executed.
+     */
+    Value apply(Interpreter in, Value[] args);
+
+    /**
+     * Run the operation in tail position of a function body.
+     * Operations which run a list, like [if], pass the tail position on to it.
+     * @param in the interpreter.
+     * @param args the values of parameters, evaluated in order.
+     * @return the return value, or a {@link TailCall}.
+     */
+    default Value applyTail(Interpreter in, Value[] args) {
+        return apply(in, args);
+    }
+}
@@ -0,0 +1,72 @@
+package mua;
+
+import java.util.HashMap;
+import java.util.function.BiFunction;
+
+/**
+ * The table of builtin operations, indexed by name.
+ * New operations are added with {@link #register}.
+ */
+public class Primitives {
+    /** The part of primitive that actually runs. */
+    public interface Body {
+        Value apply(Interpreter in, Value[] args);
+    }
+
+    private final HashMap<String, Primitive> table = new HashMap<>();
+
+    /**
+     * @param name the name of operation.
+     * @param arity the number of parameters.
+     * @param body what the operation does.
+     */
+    public void register(String name, int arity, Body body) {
+        register(name, arity, body, body);
+    }
+
+    /**
+     * @param name the name of operation.
+     * @param arity the number of parameters.
+     * @param body what the operation does.
+     * @param tailBody what the operation does in tail position of a function body.
+     */
+    public void register(String name, int arity, Body body, Body tailBody) {
+        register(name, new Primitive() {
+            public int getArity() {
+                return arity;
+            }
+
+            public Value apply(Interpreter in, Value[] args) {
+                return body.apply(in, args);
+            }
+
+            public Value applyTail(Interpreter in, Value[] args) {
+                return tailBody.apply(in, args);
+            }
+
+            public String toString() {
+                return name;
+            }
+        });
+    }
+
+    public void register(String name, Primitive p) {
+        table.put(name, p);
+    }
+
+    /**
+     * Replace every operation, e.g. by one which measures it, see {@link Profiler#wrap}.
+     * @param wrap makes the new operation from the name and the old one.
+     */
+    void wrapAll(BiFunction<String, Primitive, Primitive> wrap) {
+        table.replaceAll(wrap);
+    }
+
+    /**
+     * @param name the name of operation.
+     * @return the operation, null if there is no such operation.
+     */
+    public Primitive get(String name) {
+        return table.get(name);
+    }
+}
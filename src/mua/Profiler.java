@@ -0,0 +1,260 @@
+package mua;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts and times of the primitives and user functions run by one interpreter, see {@link Interpreter#profile}.
+ * A call is timed from entry to exit. Its self time leaves out the calls it makes.
+ * The calls also form a tree, written as collapsed stacks for flame graphs, one line per path:
+ * main;fib;add 1234, where the number is the self time in microseconds.
+ * An interpreter which is not profiled has no profiler, and pays one null check per call.
+ */
+final class Profiler {
+    /**
+     * The number of profiled runs going on, changed only by {@link #start} and {@link #stop}.
+     * While it is 0, making a value costs a branch.
+     */
+    static int running;
+    /** The profiler of run on this thread, whose new values are counted. */
+    private static final ThreadLocal<Profiler> current = new ThreadLocal<>();
+
+    /** The total of one primitive or function. */
+    private static final class Entry {
+        final String name;
+        final boolean primitive;
+        long calls;
+        long total;
+        long self;
+        /** The number of its calls running, only the outermost one adds to the total. */
+        int active;
+
+        Entry(String name, boolean primitive) {
+            this.name = name;
+            this.primitive = primitive;
+        }
+    }
+
+    /** A path of calls in the tree. */
+    private static final class Path {
+        final Entry entry;
+        final HashMap<Entry, Path> children = new HashMap<>();
+        long self;
+
+        Path(Entry entry) {
+            this.entry = entry;
+        }
+
+        Path child(Entry e) {
+            Path res = children.get(e);
+            if(res == null) {
+                res = new Path(e);
+                children.put(e, res);
+            }
+            return res;
+        }
+    }
+
+    private final HashMap<String, Entry> functions = new HashMap<>();
+    private final HashMap<String, Entry> primitives = new HashMap<>();
+    private final Path root = new Path(new Entry("main", false));
+    /** The number of values made, by type. */
+    private final HashMap<Class<?>, long[]> values = new HashMap<>();
+
+    /* The calls running, root at 0 */
+    private Path[] paths = new Path[64];
+    private long[] starts = new long[64];
+    /** The time spent in the calls made by each running call. */
+    private long[] inner = new long[64];
+    private int depth;
+
+    Profiler() {
+        paths[0] = root;
+        starts[0] = System.nanoTime();
+    }
+
+    /**
+     * Count the values made by this thread from now on, until {@link #stop}.
+     */
+    void start() {
+        current.set(this);
+        synchronized (Profiler.class) {
+            running++;
+        }
+    }
+
+    void stop() {
+        current.remove();
+        synchronized (Profiler.class) {
+            running--;
+        }
+    }
+
+    /**
+     * Count the value, if it is made by the thread of a profiled run.
+     */
+    static void countValue(Value v) {
+        Profiler p = current.get();
+        if(p != null)
+            p.values.computeIfAbsent(v.getClass(), k -> new long[1])[0]++;
+    }
+
+    /**
+     * @param name the name of primitive or function.
+     * @param primitive whether it is a primitive.
+     */
+    void enter(String name, boolean primitive) {
+        HashMap<String, Entry> table = primitive ? primitives : functions;
+        Entry e = table.get(name);
+        if(e == null) {
+            e = new Entry(name, primitive);
+            table.put(name, e);
+        }
+        e.calls++;
+        e.active++;
+        if(++depth == paths.length) {
+            paths = Arrays.copyOf(paths, depth * 2);
+            starts = Arrays.copyOf(starts, depth * 2);
+            inner = Arrays.copyOf(inner, depth * 2);
+        }
+        paths[depth] = paths[depth - 1].child(e);
+        inner[depth] = 0;
+        starts[depth] = System.nanoTime();
+    }
+
+    /**
+     * End the call entered last.
+     */
+    void exit() {
+        long time = System.nanoTime() - starts[depth];
+        Path p = paths[depth];
+        long self = time - inner[depth];
+        p.self += self;
+        p.entry.self += self;
+        if(--p.entry.active == 0)
+            p.entry.total += time;
+        paths[depth--] = null;
+        inner[depth] += time;
+    }
+
+    /**
+     * @param F the user function called.
+     */
+    void enter(Function F) {
+        enter(F.getFuncName().isEmpty() ? "[lambda]" : F.getFuncName(), false);
+    }
+
+    /**
+     * A call in tail position takes the place of the function running.
+     * @param F the function called.
+     */
+    void replace(Function F) {
+        exit();
+        enter(F);
+    }
+
+    /**
+     * Print the table of calls, sorted by self time, and write the collapsed stacks.
+     * @param err where the table is printed.
+     * @param fileName the file of collapsed stacks, null to write none.
+     */
+    void report(PrintStream err, String fileName) throws IOException {
+        /* The calls stopped by an error never exited */
+        while (depth > 0)
+            exit();
+        long time = System.nanoTime() - starts[0];
+        root.self = time - inner[0];
+
+        ArrayList<Entry> entries = new ArrayList<>(functions.values());
+        entries.addAll(primitives.values());
+        entries.sort((a, b) -> Long.compare(b.self, a.self));
+        err.printf("profile: %.3f ms%n", time / 1e6);
+        err.printf("%12s %12s %12s  %s%n", "calls", "total ms", "self ms", "name");
+        for (Entry e : entries)
+            err.printf("%12d %12.3f %12.3f  %s%s%n", e.calls, e.total / 1e6, e.self / 1e6,
+                    e.name, e.primitive ? "" : " (function)");
+        err.printf("%12s  %s%n", "values", "type");
+        for (Class<?> type : new Class<?>[]{NumberValue.class, WordValue.class, BoolValue.class, ListValue.class,
+                ArrayValue.class, DictValue.class})
+            err.printf("%12d  %s%n", values.getOrDefault(type, new long[1])[0], type.getSimpleName());
+
+        if(fileName != null) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(fileName))) {
+                writePaths(out, root, root.entry.name);
+            }
+        }
+    }
+
+    private static void writePaths(PrintWriter out, Path p, String stack) {
+        if(p.self >= 1000)
+            out.println(stack + " " + p.self / 1000);
+        for (Map.Entry<Entry, Path> e : p.children.entrySet())
+            writePaths(out, e.getValue(), stack + ";" + e.getKey().name);
+    }
+
+    /**
+     * @param name the name of primitive.
+     * @param p the primitive.
+     * @return the primitive which is timed when the interpreter running it is profiled.
+     */
+    static Primitive wrap(String name, Primitive p) {
+        return new Timed(name, p);
+    }
+
+    /**
+     * @param p a primitive.
+     * @return the primitive which is not timed, e.g. to fold a call when parsing, which is not a call run.
+     */
+    static Primitive unwrap(Primitive p) {
+        return p instanceof Timed ? ((Timed) p).p : p;
+    }
+
+    /** A primitive timed when the interpreter running it is profiled. */
+    private static final class Timed implements Primitive {
+        final String name;
+        final Primitive p;
+
+        Timed(String name, Primitive p) {
+            this.name = name;
+            this.p = p;
+        }
+
+        public int getArity() {
+            return p.getArity();
+        }
+
+        public Value apply(Interpreter in, Value[] args) {
+            Profiler prof = in.getProfiler();
+            if(prof == null)
+                return p.apply(in, args);
+            prof.enter(name, true);
+            try {
+                return p.apply(in, args);
+            } finally {
+                prof.exit();
+            }
+        }
+
+        public Value applyTail(Interpreter in, Value[] args) {
+            Profiler prof = in.getProfiler();
+            if(prof == null)
+                return p.applyTail(in, args);
+            prof.enter(name, true);
+            try {
+                return p.applyTail(in, args);
+            } finally {
+                prof.exit();
+            }
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package mua;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Find the user functions which are pure: their result only depends on their parameters,
+ * and they change nothing. Their bodies only use parameters, literals, builtins without side effects,
+ * [if] and [run] with literal lists, and calls of pure functions.
+ * No [print], [make], [erase], [read], [load], [random], and no variable other than the parameters.
+ */
+final class Purity {
+    private static final Set<String> PURE_OPS = Set.of(
+            "add", "sub", "mul", "div", "mod", "int", "sqrt",
+            "eq", "gt", "lt", "and", "or", "not",
+            "isnumber", "isbool", "isword", "islist", "isempty",
+            "first", "last", "butfirst", "butlast", "word", "sentence", "join", "list");
+
+    private final Interpreter in;
+    private final int epoch;
+    /** The functions being checked, which are assumed pure when they are called again. */
+    private final HashSet<Function> visiting = new HashSet<>();
+
+    private Purity(Interpreter in, int epoch) {
+        this.in = in;
+        this.epoch = epoch;
+    }
+
+    /**
+     * The result is kept on the function until a function is defined again.
+     * @param in the interpreter.
+     * @param F the function.
+     * @return whether the function is pure.
+     */
+    static boolean isPure(Interpreter in, Function F) {
+        int epoch = in.getDefineEpoch();
+        if(F.getPureEpoch() == epoch)
+            return F.isPure();
+        Purity p = new Purity(in, epoch);
+        boolean res = p.function(F);
+        if(res) {
+            /* Those called are pure too, the ones assumed pure while being checked included */
+            for (Function f : p.visiting)
+                f.setPure(true, epoch);
+        }
+        else
+            F.setPure(false, epoch);
+        return res;
+    }
+
+    private boolean function(Function F) {
+        if(F == null)
+            return false;
+        if(F.getPureEpoch() == epoch)
+            return F.isPure();
+        if(!visiting.add(F))
+            return true;
+        return code(F.getFuncBody(), F);
+    }
+
+    private boolean all(Node[] nodes, Function F) {
+        for (Node n : nodes) {
+            if(!node(n, F))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean node(Node n, Function F) {
+        if(n instanceof Node.Literal)
+            return true;
+        if(n instanceof Node.Var)
+            return F.slotOf(((Node.Var) n).id) >= 0;
+        if(n instanceof Node.Return)
+            return node(((Node.Return) n).value, F);
+        if(n instanceof Node.FuncCall) {
+            Node.FuncCall call = (Node.FuncCall) n;
+            return all(call.args, F) && function(in.getFunction(call.name));
+        }
+        if(n instanceof Node.Call) {
+            Node.Call call = (Node.Call) n;
+            switch (call.op) {
+                case "if":
+                    return node(call.args[0], F) && code(call.args[1], F) && code(call.args[2], F);
+                case "run":
+                    return code(call.args[0], F);
+                case "thing":
+                    /* - thing "name, where name is a parameter */
+                    return call.args[0] instanceof Node.Literal
+                            && F.slotOf(in.getSymbols().of(((Node.Literal) call.args[0]).value)) >= 0;
+                default:
+                    return PURE_OPS.contains(call.op) && all(call.args, F);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether n is a literal list, whose code is pure.
+     */
+    private boolean code(Node n, Function F) {
+        if(!(n instanceof Node.Literal) || !((Node.Literal) n).value.isList())
+            return false;
+        return code((ListValue) ((Node.Literal) n).value, F);
+    }
+
+    /**
+     * The code is kept on the list fully parsed, so that the threads of {@link ListOps} only read it.
+     * @return whether the code of list is pure.
+     */
+    private boolean code(ListValue list, Function F) {
+        Node[] body = in.getParser().parseAll(list);
+        if(body == null || !all(body, F))
+            return false;
+        Block block = list.getCode();
+        if(block == null || block.getEpoch() != in.getParseEpoch() || !block.isComplete())
+            list.setCode(new Block(list, in.getParseEpoch(), body));
+        return true;
+    }
+}
@@ -0,0 +1,113 @@
+package mua;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * A long-lived interpreter process on a loopback socket, so a program does not wait for a new JVM.
+ * A connection sends the program, like the stdin of {@link Main}, and closes its output.
+ * The server runs it on a new interpreter, with a new global table, and sends back what it prints.
+ * Any client which half-closes the socket works, e.g. nc -N localhost 7878 &lt; in.
+ * A client which sends the byte {@link #STATUS} first gets the exit status of program as the last byte,
+ * so {@link #client} exits like {@link Main} would.
+ */
+final class Server {
+    static final int DEFAULT_PORT = 7878;
+    /** Sent before the program to ask for the exit status, a byte which is never in a program. */
+    static final int STATUS = 0;
+    /** The time a connection may send nothing, before it is closed, in milliseconds. */
+    static final int READ_TIMEOUT = 60000;
+
+    private Server() {
+    }
+
+    /**
+     * Serve until the process is killed.
+     * @param port the port on the loopback address.
+     * @param jobs the number of programs run at the same time.
+     * @param make makes an interpreter for each program.
+     */
+    static void serve(int port, int jobs, Supplier<Interpreter> make) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        try (ServerSocket server = new ServerSocket(port, 64, InetAddress.getLoopbackAddress())) {
+            System.err.println("mua: listening on " + server.getLocalSocketAddress());
+            while (true) {
+                Socket socket = server.accept();
+                pool.execute(() -> handle(socket, make.get()));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void handle(Socket socket, Interpreter in) {
+        try (socket) {
+            /* A stalled client does not keep the thread, its [read] fails at last */
+            socket.setSoTimeout(READ_TIMEOUT);
+            PushbackInputStream request = new PushbackInputStream(socket.getInputStream());
+            int first = request.read();
+            boolean status = first == STATUS;
+            if(!status && first >= 0)
+                request.unread(first);
+            Reader source = new BufferedReader(new InputStreamReader(request, Charset.defaultCharset()));
+            OutputStream output = socket.getOutputStream();
+            int res = 1;
+            try {
+                res = in.run(source, output);
+            } finally {
+                if(status)
+                    output.write(res);
+            }
+        } catch (IOException | RuntimeException | StackOverflowError e) {
+            System.err.println("mua: " + socket.getRemoteSocketAddress() + ": " + e);
+        }
+    }
+
+    /**
+     * Send stdin to the server and copy the output to stdout, in place of running the program here.
+     * @param port the port on the loopback address.
+     * @return the exit status of program, 0 if it ends well.
+     */
+    static int client(int port) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream request = socket.getOutputStream();
+            request.write(STATUS);
+            /* stdin is sent while the output comes back, a program may print before it reads */
+            Thread send = new Thread(() -> {
+                try {
+                    System.in.transferTo(request);
+                    socket.shutdownOutput();
+                } catch (IOException ignored) {
+                    // the server has closed the connection
+                }
+            });
+            send.setDaemon(true);
+            send.start();
+            return copy(socket.getInputStream(), System.out);
+        }
+    }
+
+    /**
+     * Copy the output of program, which is all but the last byte.
+     * @return the last byte, which is the exit status, 1 if nothing is sent.
+     */
+    private static int copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[8192];
+        int last = -1;
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            if(last >= 0)
+                out.write(last);
+            out.write(buf, 0, n - 1);
+            last = buf[n - 1] & 0xff;
+            out.flush();
+        }
+        return last < 0 ? 1 : last;
+    }
+}
@@ -0,0 +1,49 @@
+package mua;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Names of variables, interned to small integer ids when the code is read.
+ * The ids index the variable tables, so running the code never hashes a name.
+ * Each interpreter has its own table, shared only with its forks, so the names met by one program
+ * are dropped with its interpreter, e.g. after a connection of {@link Server} is closed.
+ */
+final class Symbols {
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, String> names = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param name the name.
+     * @return the id of name, the same for equal names.
+     */
+    int intern(String name) {
+        Integer id = ids.get(name);
+        if(id != null)
+            return id;
+        return ids.computeIfAbsent(name, k -> {
+            int res = next.getAndIncrement();
+            names.put(res, k);
+            return res;
+        });
+    }
+
+    /**
+     * @param id the id of a name.
+     * @return the name.
+     */
+    String name(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * @param name a value used as a name, e.g. the word after [make].
+     * @return the id of name.
+     */
+    int of(Value name) {
+        if(name instanceof WordValue)
+            return ((WordValue) name).symbol(this);
+        return intern(name.getVal());
+    }
+}
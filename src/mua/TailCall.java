@@ -0,0 +1,19 @@
+package mua;
+
+/**
+ * A call of user function in tail position, returned instead of being run,
+ * so that the caller runs it in place of the current call and the stack does not grow.
+ * Each interpreter reuses one instance, it is consumed as soon as it is returned.
+ */
+final class TailCall extends Value {
+    Function func;
+    Value[] args;
+
+    public int getType() {
+        return Interpreter.ERROR_;
+    }
+
+    public String getVal() {
+        return "[tail call " + func.getFuncName() + "]";
+    }
+}
@@ -0,0 +1,87 @@
+package mua;
+
+/**
+ * A cursor over tokens, which the interpreter advances word by word.
+ * It is either backed by the elements of a list, or by a {@link Lexer}
+ * that is pulled lazily (stdin and loaded files).
+ */
+public class TokenStream {
+    private final ListValue list;
+    private int pos;
+    private final Lexer lexer;
+    /** The token read ahead from the lexer, null if none. */
+    private String ahead;
+    /** The list element met by the last {@link #next()}, null if none. */
+    private ListValue element;
+
+    /**
+     * @param list the list whose elements are read, from the first one.
+     */
+    public TokenStream(ListValue list) {
+        this(list, 0);
+    }
+
+    /**
+     * @param list the list whose elements are read.
+     * @param pos the index of the first element to read.
+     */
+    public TokenStream(ListValue list, int pos) {
+        this.list = list;
+        this.pos = pos;
+        this.lexer = null;
+    }
+
+    /**
+     * @param lexer the lexer to pull tokens from.
+     */
+    public TokenStream(Lexer lexer) {
+        this.list = null;
+        this.lexer = lexer;
+    }
+
+    /**
+     * @return the index of the next element in the list.
+     */
+    public int position() {
+        return pos;
+    }
+
+    public boolean hasNext() {
+        if(lexer == null)
+            return pos < list.size();
+        if(ahead == null)
+            ahead = lexer.nextToken();
+        return ahead != null;
+    }
+
+    /**
+     * A list element is returned as "[", and the list itself is kept for {@link #takeList()}.
+     * @return the next token, or null if there is no more token.
+     */
+    public String next() {
+        if(lexer == null) {
+            if(pos >= list.size())
+                return null;
+            Value v = list.get(pos++);
+            if(v.isList()) {
+                element = (ListValue) v;
+                return "[";
+            }
+            return v.getVal();
+        }
+        if(!hasNext())
+            return null;
+        String res = ahead;
+        ahead = null;
+        return res;
+    }
+
+    /**
+     * @return the list element met by the last {@link #next()}, null if it was a real "[".
+     */
+    public ListValue takeList() {
+        ListValue res = element;
+        element = null;
+        return res;
+    }
+}
@@ -0,0 +1,206 @@
+package mua;
+
+import java.util.Arrays;
+
+/**
+ * Run compiled {@link Chunk}s with one value stack and a dispatch loop.
+ * Variables, frames and primitives are shared with the {@link Interpreter},
+ * only the evaluation of code is different.
+ */
+final class VM {
+    private final Interpreter in;
+    private Value[] stack = new Value[256];
+    private int sp;
+
+    VM(Interpreter in) {
+        this.in = in;
+    }
+
+    /**
+     * Run a statement which is not in a function body.
+     * @param stmt the statement.
+     * @return the value of statement.
+     */
+    Value runStatement(Node stmt) {
+        return execute(Compiler.compileStatement(in, stmt, in.getParseEpoch()));
+    }
+
+    /**
+     * - run <list>
+     * @param list the list.
+     * @param tail whether the list is in tail position of a function body.
+     * @return the value of list, or a {@link TailCall} if tail is true.
+     */
+    Value runList(ListValue list, boolean tail) {
+        Chunk chunk = tail ? list.getTailChunk() : list.getChunk();
+        if(chunk == null || chunk.epoch != in.getParseEpoch()) {
+            chunk = Compiler.compileList(in, list, null, tail, in.getParseEpoch());
+            if(tail)
+                list.setTailChunk(chunk);
+            else
+                list.setChunk(chunk);
+        }
+        return execute(chunk);
+    }
+
+    /**
+     * Call the user function with a new frame.
+     * @param F the function.
+     * @param args the values of parameters, which become the slots of frame.
+     * @return the return value of function.
+     */
+    Value callFunc(Function F, Value[] args) {
+        Value res = FunctionCompiler.tryCall(in, F, args);
+        if(res != null)
+            return res;
+        Frame frame = new Frame(F, args);
+        in.pushFrame(frame);
+        res = execute(chunkOf(F));
+        /* A call in tail position reuses the frame, instead of nesting */
+        while (res instanceof TailCall) {
+            TailCall call = (TailCall) res;
+            Function next = call.func;
+            args = call.args;
+            call.args = null;
+            Value compiled = FunctionCompiler.tryCall(in, next, args);
+            if(compiled != null) {
+                res = compiled;
+                break;
+            }
+            if(in.getProfiler() != null)
+                in.getProfiler().replace(next);
+            frame.reuse(next, args);
+            res = execute(chunkOf(next));
+        }
+        in.popFrame();
+        return res;
+    }
+
+    private Chunk chunkOf(Function F) {
+        Chunk chunk = F.getChunk();
+        if(chunk == null || chunk.epoch != in.getParseEpoch()) {
+            chunk = Compiler.compileList(in, F.getFuncBody(), F, true, in.getParseEpoch());
+            F.setChunk(chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * The dispatch loop.
+     * @param chunk the chunk to run.
+     * @return the value returned by the chunk.
+     */
+    private Value execute(Chunk chunk) {
+        int[] code = chunk.code;
+        Value[] consts = chunk.consts;
+        Object[] refs = chunk.refs;
+        int base = sp;
+        if(base + chunk.maxStack > stack.length)
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, base + chunk.maxStack));
+
+        int pc = 0;
+        while (true) {
+            switch (code[pc++]) {
+                case Chunk.CONST:
+                    stack[sp++] = consts[code[pc++]];
+                    break;
+                case Chunk.LOCAL: {
+                    Value v = in.currentFrame().slots[code[pc++]];
+                    Node.Var var = (Node.Var) refs[code[pc++]];
+                    stack[sp++] = v != null ? v : in.lookup(var.id, var.name);
+                    break;
+                }
+                case Chunk.VAR:
+                    stack[sp++] = ((Node.Var) refs[code[pc++]]).eval(in);
+                    break;
+                case Chunk.PRIM:
+                case Chunk.PRIM_TAIL: {
+                    boolean tail = code[pc - 1] == Chunk.PRIM_TAIL;
+                    Primitive prim = (Primitive) refs[code[pc++]];
+                    Value[] args = pop(code[pc++]);
+                    Value res = tail ? prim.applyTail(in, args) : prim.apply(in, args);
+                    stack[sp++] = res;
+                    break;
+                }
+                case Chunk.CALL: {
+                    String name = (String) refs[code[pc++]];
+                    Value[] args = pop(code[pc++]);
+                    Value res = in.call(function(name, args.length), args);
+                    stack[sp++] = res;
+                    break;
+                }
+                case Chunk.TAIL: {
+                    String name = (String) refs[code[pc++]];
+                    Value[] args = pop(code[pc++]);
+                    stack[sp++] = in.tailCall(function(name, args.length), args);
+                    break;
+                }
+                case Chunk.JUMP_FALSE: {
+                    Value opFlag = stack[--sp];
+                    if(opFlag.getType() != Interpreter.BOOl_)
+                        in.errorThrow("The type after IF is not a BOOL");
+                    if(opFlag == Value.FALSE)
+                        pc = code[pc];
+                    else
+                        pc++;
+                    break;
+                }
+                case Chunk.JUMP:
+                    pc = code[pc];
+                    break;
+                case Chunk.POP:
+                    stack[--sp] = null;
+                    break;
+                case Chunk.RETURN: {
+                    Value res = stack[--sp];
+                    stack[sp] = null;
+                    sp = base;
+                    return res;
+                }
+                case Chunk.TREE: {
+                    ListValue list = (ListValue) consts[code[pc++]];
+                    boolean tail = code[pc++] == 1;
+                    stack[sp++] = in.runTree(list, tail);
+                    break;
+                }
+                case Chunk.REPARSE: {
+                    if(in.getParseEpoch() == chunk.epoch) {
+                        pc += 3;
+                        break;
+                    }
+                    ListValue rest = (ListValue) consts[code[pc]];
+                    boolean tail = code[pc + 1] == 1;
+                    stack[sp++] = in.runTree(rest, tail);
+                    pc = code[pc + 2];
+                    break;
+                }
+                default:
+                    in.errorThrow("Bad instruction " + code[pc - 1]);
+            }
+        }
+    }
+
+    /**
+     * @param name the name of function.
+     * @param arity the number of arguments compiled for the call.
+     * @return the function, which takes that many arguments.
+     */
+    private Function function(String name, int arity) {
+        Function F = in.getFunction(name);
+        if(F == null || F.getArity() != arity)
+            in.errorThrow("The function " + name + " does not take " + arity + " parameter(s).");
+        return F;
+    }
+
+    /**
+     * @param n the number of values.
+     * @return the top n values, in the order they were pushed.
+     */
+    private Value[] pop(int n) {
+        Value[] res = new Value[n];
+        sp -= n;
+        System.arraycopy(stack, sp, res, 0, n);
+        Arrays.fill(stack, sp, sp + n, null);
+        return res;
+    }
+}
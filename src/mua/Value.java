@@ -6,27 +6,49 @@ package mua;
  * @author Ya-Ou
  * @Date   2022-1-3 2:47:32
  * @version 1.00
+ *
+ * Values are immutable. Each type has its own subclass and keeps its content unboxed,
+ * the text is only produced when it is printed or used as a word.
  */
-public class Value {
-    private int type;
-    private String val;
+public abstract class Value {
+    public static final Value TRUE = new BoolValue(true);
+    public static final Value FALSE = new BoolValue(false);
+
+    protected Value() {
+        if(Profiler.running > 0)
+            Profiler.countValue(this);
+    }
+
+    /**
+     * @return the type of varables.
+     */
+    public abstract int getType();
+
+    /**
+     * @return the text of varables.
+     */
+    public abstract String getVal();
 
     /**
-     * @param val the content of varables.
-     * @param type the type of varables.
+     * @return the number of varables, only a NUMBER has one.
      */
-    public Value(String val, int type) {
-        this.type = type;
-        this.val = val;
+    public double getNumber() {
+        throw new MuaError("The value " + getVal() + " is not a NUMBER.");
     }
 
-    public String getVal() {
-        return val;
+    /**
+     * Write the text of value, without making a string if it can be avoided.
+     * @param sb the buffer.
+     */
+    void appendTo(StringBuilder sb) {
+        sb.append(getVal());
     }
-    public int getType() {
-        return type;
+
+    public boolean isList() {
+        return false;
     }
 
-    public void setType(int t) {this.type = t;}
-    public void setVal(String s) {this.val = s;}
+    public static Value bool(boolean b) {
+        return b ? TRUE : FALSE;
+    }
 }
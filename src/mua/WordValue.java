@@ -0,0 +1,207 @@
+package mua;
+
+/**
+ * A word.
+ * The chars of a word may be a slice of a buffer shared with other words, so that [butfirst] and [butlast]
+ * take no copy. [word] writes in place after the first word, or before the second one,
+ * when nobody has taken that room yet, so building a word a char at a time from either end is linear.
+ * The text is only made into a string when it is used as a name, a number or a key.
+ */
+public final class WordValue extends Value {
+    /** The shared storage. Chars in [low, high) are never modified, the room around them is free. */
+    private static final class Chars {
+        final char[] data;
+        int low;
+        int high;
+
+        Chars(char[] data, int low, int high) {
+            this.data = data;
+            this.low = low;
+            this.high = high;
+        }
+
+        /**
+         * Take the free room after end, if nobody has taken it.
+         * @param end the end of the slice which asks.
+         * @param n the number of chars to append.
+         * @return true if the chars can be written after end.
+         */
+        synchronized boolean claimAfter(int end, int n) {
+            if(end != high || high + n > data.length)
+                return false;
+            high += n;
+            return true;
+        }
+
+        /**
+         * Take the free room before start, if nobody has taken it.
+         * @param start the start of the slice which asks.
+         * @param n the number of chars to put before it.
+         * @return true if the chars can be written before start.
+         */
+        synchronized boolean claimBefore(int start, int n) {
+            if(start != low || low < n)
+                return false;
+            low -= n;
+            return true;
+        }
+    }
+
+    /** The chars in [from, to), null while the word is only its string. */
+    private Chars buf;
+    private final int from;
+    private final int to;
+    /** The text, made from the chars when first needed. */
+    private String val;
+    private final int type;
+    /** The id of word used as a name in the table symbols, null until it is interned. */
+    private Symbols symbols;
+    private int symbol;
+
+    /**
+     * @param val the content of word.
+     */
+    public WordValue(String val) {
+        this(val, Interpreter.WORD_);
+    }
+
+    /**
+     * @param val the content of word.
+     * @param type WORD_, or ERROR_ for the message of error.
+     */
+    public WordValue(String val, int type) {
+        this.val = val;
+        this.type = type;
+        this.from = 0;
+        this.to = val.length();
+    }
+
+    private WordValue(Chars buf, int from, int to) {
+        this.buf = buf;
+        this.from = from;
+        this.to = to;
+        this.type = Interpreter.WORD_;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getVal() {
+        if(val == null)
+            val = new String(buf.data, from, to - from);
+        return val;
+    }
+
+    void appendTo(StringBuilder sb) {
+        if(val != null)
+            sb.append(val);
+        else
+            sb.append(buf.data, from, to - from);
+    }
+
+    /**
+     * @return the number of chars.
+     */
+    int length() {
+        return to - from;
+    }
+
+    private char charAt(int i) {
+        return val != null ? val.charAt(i) : buf.data[from + i];
+    }
+
+    /**
+     * @return the chars of the word, in [from, to).
+     */
+    private Chars chars() {
+        if(buf == null)
+            buf = new Chars(val.toCharArray(), 0, val.length());
+        return buf;
+    }
+
+    /**
+     * @param start the first index, included.
+     * @param end the last index, excluded.
+     * @return the word of chars in [start, end), sharing the chars.
+     */
+    WordValue sub(int start, int end) {
+        return new WordValue(chars(), from + start, from + end);
+    }
+
+    /**
+     * - word <word> <value>
+     * @param other the value put at the end.
+     * @return a new word with the chars of this word and the text of other.
+     */
+    WordValue concat(Value other) {
+        WordValue right = other instanceof WordValue ? (WordValue) other : new WordValue(other.getVal());
+        int n = right.length();
+        int m = length();
+        if(n == 0)
+            return this;
+        if(m == 0)
+            return right;
+        Chars chars = chars();
+        if(chars.claimAfter(to, n)) {
+            right.copyTo(chars.data, to);
+            return new WordValue(chars, from, to + n);
+        }
+        chars = right.chars();
+        if(chars.claimBefore(right.from, m)) {
+            copyTo(chars.data, right.from - m);
+            return new WordValue(chars, right.from - m, right.to);
+        }
+        /* Room on both sides, for the words made from this one at either end */
+        char[] data = new char[(m + n) * 3 + 16];
+        int start = (data.length - m - n) / 2;
+        copyTo(data, start);
+        right.copyTo(data, start + m);
+        return new WordValue(new Chars(data, start, start + m + n), start, start + m + n);
+    }
+
+    private void copyTo(char[] data, int at) {
+        if(val != null)
+            val.getChars(0, length(), data, at);
+        else
+            System.arraycopy(buf.data, from, data, at, length());
+    }
+
+    /**
+     * @return whether there are only blanks, like getVal().trim().isEmpty().
+     */
+    boolean isBlank() {
+        for(int i=0; i<length(); i++) {
+            if(charAt(i) > ' ')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param other another word.
+     * @return the same order as getVal().compareTo(other.getVal()).
+     */
+    int compareTo(WordValue other) {
+        int n = Math.min(length(), other.length());
+        for(int i=0; i<n; i++) {
+            char a = charAt(i), b = other.charAt(i);
+            if(a != b)
+                return a - b;
+        }
+        return length() - other.length();
+    }
+
+    /**
+     * A word is read by one interpreter, so the id is interned again only if it is used with another table.
+     * @param table the table of names of interpreter.
+     * @return the id of word used as a name, see {@link Symbols}.
+     */
+    int symbol(Symbols table) {
+        if(symbols != table) {
+            symbol = table.intern(getVal());
+            symbols = table;
+        }
+        return symbol;
+    }
+}
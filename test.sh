@@ -0,0 +1,73 @@
+#!/bin/bash
+# Regression run: sh test.sh
+# Every program in src/test-data prints the same in each engine as with the tree walking interpreter,
+# and the same as its out.txt. Then the cache of pure functions and the exit status of --batch are checked.
+
+cd "$(dirname "$0")"
+tmp=$(mktemp -d)
+trap 'rm -rf "$tmp"' EXIT
+
+echo "compiling"
+javac -encoding UTF-8 -d "$tmp/classes" src/mua/*.java || exit 1
+
+mua() {
+    java -cp "$tmp/classes" mua.Main "$@"
+}
+
+failed=0
+fail() {
+    echo "FAIL: $*"
+    failed=$((failed + 1))
+}
+
+echo "[programs]"
+for dir in src/test-data/*/; do
+    name=$(basename "$dir")
+    (cd "$dir" && mua < in.txt > "$tmp/$name.tree" 2>&1)
+    if [ -f "$dir/out.txt" ] && ! diff -q "$dir/out.txt" "$tmp/$name.tree" > /dev/null; then
+        fail "$name differs from out.txt"
+    fi
+    for mode in "--vm" "--hot=1" "--vm --hot=1"; do
+        (cd "$dir" && mua $mode < in.txt > "$tmp/$name.mode" 2>&1)
+        if ! diff -q "$tmp/$name.tree" "$tmp/$name.mode" > /dev/null; then
+            fail "$name differs with $mode"
+            diff "$tmp/$name.tree" "$tmp/$name.mode" | head -5
+        fi
+    done
+done
+
+echo "[memo]"
+fib='make "fib [[n] [if lt :n 2 [return :n] [return add fib sub :n 1 fib sub :n 2]]]
+print fib 20'
+noisy='make "noisy [[n] [print :n return :n]]
+print noisy 1
+print noisy 1'
+mutable='make "same [[a b] [return eq :a :b]]
+make "x array 1
+make "y array 1
+print same :x :y
+setitem 1 :x 5
+print same :x :y'
+for mode in "" "--vm"; do
+    out=$(echo "$mutable" | mua $mode --memo-stats 2>&1 | grep -E '^(true|false|memo:)' | tr '\n' ' ')
+    [ "$out" = "true false memo: 0 hits, 0 misses " ] || fail "function of arrays $mode: $out"
+    stats=$(echo "$fib" | mua $mode --memo-stats 2>&1 > /dev/null)
+    [ "$stats" = "memo: 18 hits, 21 misses" ] || fail "pure function $mode: $stats"
+    stats=$(echo "$noisy" | mua $mode --memo-stats 2>&1 > /dev/null)
+    [ "$stats" = "memo: 0 hits, 0 misses" ] || fail "impure function $mode: $stats"
+done
+
+echo "[batch]"
+echo 'print "good' > "$tmp/good.mua"
+echo 'print int "x' > "$tmp/bad.mua"
+mua --batch "$tmp/good.mua" "$tmp/bad.mua" 2> /dev/null
+[ $? -eq 1 ] || fail "batch with a failed program does not exit with 1"
+grep -q '^\[ERROR\]' "$tmp/bad.mua.out" || fail "batch does not write the error of failed program"
+grep -q '^good$' "$tmp/good.mua.out" || fail "batch does not write the output of good program"
+mua --batch "$tmp/good.mua" 2> /dev/null || fail "batch without a failed program does not exit with 0"
+
+if [ $failed -ne 0 ]; then
+    echo "$failed failed"
+    exit 1
+fi
+echo "all passed"